@@ -0,0 +1,321 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_BREAK_LINKS;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_CREATE_LINKS;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_MARI_ANGLE;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_PROB_THRESHOLD;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_USE_MARI_PRINCIPLE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.CostMatrixCreator;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
+import net.imglib2.util.Pair;
+
+/**
+ * JMH benchmarks of the hot paths of the oneat correction, on the synthetic
+ * label movie of {@link DivisionLinkingBenchmark} with a oneat csv file of
+ * its missed divisions.
+ * <p>
+ * Run with the GC profiler for the allocation rate:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec@jmh -Djmh.args="CorrectionBenchmark -prof gc"
+ * </pre>
+ *
+ * The benchmarks on a single mother cell cycle through the mother cells of
+ * the movie.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class CorrectionBenchmark
+{
+
+	private static final double[] CALIBRATION = new double[] { 1, 1, 1 };
+
+	/** Spots in the first frame, each one a track. */
+	@Param( { "200", "1000" } )
+	public int spots;
+
+	@Param( { "20" } )
+	public int frames;
+
+	/** Division probability per spot and frame, one oneat event each. */
+	@Param( { "0.02", "0.1" } )
+	public double density;
+
+	private DivisionLinkingBenchmark movie;
+
+	private int ndims;
+
+	private Map< String, Object > settings;
+
+	private File events;
+
+	private HashMap< Integer, ArrayList< Spot > > eventframes;
+
+	private Pair< HashMap< Pair< Integer, Integer >, Pair< Spot, Integer > >, Pair< HashMap< Integer, Spot >, HashMap< Integer, ArrayList< Spot > > > > labels;
+
+	private HashMap< Integer, Pair< Spot, ArrayList< Spot > > > mitosis;
+
+	private Map< String, Object > cmsettings;
+
+	private Spot[] mothers;
+
+	private List< SimpleWeightedGraph< Spot, DefaultWeightedEdge > > neighbourhoods;
+
+	private List< OneatCostMatrix > costs;
+
+	private int next = 0;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException
+	{
+		movie = new DivisionLinkingBenchmark( spots, frames, density, 1 );
+		ndims = movie.img.numDimensions() - 1;
+		settings = movie.getSettings( false );
+		settings.put( KEY_PROB_THRESHOLD, 0.5 );
+		settings.put( KEY_CREATE_LINKS, true );
+		settings.put( KEY_BREAK_LINKS, true );
+
+		// One oneat event per mother cell: t, z, y, x, score, size, confidence
+		events = File.createTempFile( "oneat-divisions", ".csv" );
+		events.deleteOnExit();
+		final ArrayList< Spot > motherlist = new ArrayList<>();
+		try (PrintWriter writer = new PrintWriter( events ))
+		{
+			writer.println( "T,Z,Y,X,Score,Size,Confidence" );
+			for ( final Pair< Spot, ArrayList< Spot > > track : movie.mitosisspots.values() )
+				for ( final Spot mother : track.getB() )
+				{
+					motherlist.add( mother );
+					writer.println( mother.getFeature( Spot.FRAME ).intValue() + ",0," + mother.getDoublePosition( 1 ) + "," + mother.getDoublePosition( 0 ) + ",0.9,10,1" );
+				}
+		}
+		if ( motherlist.isEmpty() )
+			throw new IllegalStateException( "The movie has no division, increase the spots, frames or density." );
+		mothers = motherlist.toArray( new Spot[ 0 ] );
+
+		final Pair< Pair< SpotCollection, HashMap< Integer, ArrayList< Spot > > >, Pair< SpotCollection, HashMap< Integer, ArrayList< Spot > > > > parsed = TrackCorrectorRunner.run( events, null, settings, Logger.VOID_LOGGER, ndims, CALIBRATION, null );
+		eventframes = parsed.getA().getB();
+		labels = TrackCorrectorRunner.getFirstTrackMateobject( movie.model, movie.img, Logger.VOID_LOGGER, CALIBRATION, 1, null );
+		mitosis = TrackCorrectorRunner.getmitosisTrackID( labels.getA(), labels.getB(), movie.model, movie.img, eventframes, settings, Logger.VOID_LOGGER, 1, CALIBRATION, null );
+
+		// The local problems of the link creation, one per mother cell
+		final double searchdistance = ( double ) settings.get( KEY_LINKING_MAX_DISTANCE );
+		final int tmoneatdeltat = ( int ) settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP );
+		final SpotGridIndex spotindex = new SpotGridIndex( movie.model.getSpots(), searchdistance );
+		cmsettings = TrackCorrectorRunner.getCostMatrixSettings( settings, searchdistance, tmoneatdeltat );
+		neighbourhoods = new ArrayList<>( mothers.length );
+		costs = new ArrayList<>( mothers.length );
+		for ( final Spot mother : mothers )
+		{
+			final Pair< double[], double[] > axes = TrackCorrectorRunner.getMotherAxes( mother, movie.img, CALIBRATION, ndims );
+			final SimpleWeightedGraph< Spot, DefaultWeightedEdge > localgraph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+			TrackCorrectorRunner.addMotherNeighbourhood( localgraph, movie.model.getTrackModel(), spotindex, mother, axes.getA(), tmoneatdeltat, searchdistance, ( double ) settings.get( KEY_MARI_ANGLE ), ( boolean ) settings.get( KEY_USE_MARI_PRINCIPLE ) );
+			neighbourhoods.add( localgraph );
+
+			final OneatCostMatrix cm = new OneatCostMatrix( localgraph, cmsettings );
+			cm.setNumThreads( 1 );
+			if ( !cm.checkInput() || !cm.process() )
+				throw new IllegalStateException( cm.getErrorMessage() );
+			costs.add( cm );
+		}
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		events.delete();
+	}
+
+	private int nextMother()
+	{
+		next = ( next + 1 ) % mothers.length;
+		return next;
+	}
+
+	@Benchmark
+	public Object csvIngest()
+	{
+		return TrackCorrectorRunner.get_action_spots( events, Logger.VOID_LOGGER, CALIBRATION, 0.5, null );
+	}
+
+	@Benchmark
+	public Object labelLookup()
+	{
+		return TrackCorrectorRunner.getFirstTrackMateobject( movie.model, movie.img, Logger.VOID_LOGGER, CALIBRATION, 1, null );
+	}
+
+	/**
+	 * Ellipsoid fit of the label of one mother cell and its axes.
+	 */
+	@Benchmark
+	public Object ellipsoidFit()
+	{
+		return TrackCorrectorRunner.getMotherAxes( mothers[ nextMother() ], movie.img, CALIBRATION, ndims );
+	}
+
+	/**
+	 * Cost matrix of the neighbourhood of one mother cell.
+	 */
+	@Benchmark
+	public void costMatrix( final Blackhole bh )
+	{
+		final OneatCostMatrix cm = new OneatCostMatrix( neighbourhoods.get( nextMother() ), cmsettings );
+		cm.setNumThreads( 1 );
+		bh.consume( cm.checkInput() && cm.process() );
+		bh.consume( cm.getResult() );
+	}
+
+	/**
+	 * Local linker of the neighbourhood of one mother cell, on its cost
+	 * matrix created beforehand.
+	 */
+	@Benchmark
+	public void localLinker( final Blackhole bh )
+	{
+		final LocalJaqamanLinker< Spot, Spot > linker = new LocalJaqamanLinker<>( new Precomputed( costs.get( nextMother() ) ), Logger.VOID_LOGGER );
+		linker.setNumThreads( 1 );
+		bh.consume( linker.checkInput() && linker.process() );
+		bh.consume( linker.getAssignment() );
+	}
+
+	/**
+	 * The corrected graph of the whole movie, link breaking and creation.
+	 */
+	@Benchmark
+	public Object correctedTracks() throws Exception
+	{
+		return TrackCorrectorRunner.getCorrectedTracks( movie.model, movie.trackmate, labels.getA(), labels.getB(), mitosis, null, settings, ndims, Logger.VOID_LOGGER, movie.img, eventframes, 1, CALIBRATION, false, null );
+	}
+
+	/**
+	 * Hands a cost matrix created beforehand to the linker, so that only the
+	 * linker is measured.
+	 */
+	private static final class Precomputed implements CostMatrixCreator< Spot, Spot >, SparseLinkCosts.Provider
+	{
+
+		private final OneatCostMatrix costs;
+
+		private Precomputed( final OneatCostMatrix costs )
+		{
+			this.costs = costs;
+		}
+
+		@Override
+		public boolean checkInput()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean process()
+		{
+			return true;
+		}
+
+		@Override
+		public String getErrorMessage()
+		{
+			return costs.getErrorMessage();
+		}
+
+		@Override
+		public SparseCostMatrix getResult()
+		{
+			return costs.getResult();
+		}
+
+		@Override
+		public SparseLinkCosts getLinkCosts()
+		{
+			return costs.getLinkCosts();
+		}
+
+		@Override
+		public List< Spot > getSourceList()
+		{
+			return costs.getSourceList();
+		}
+
+		@Override
+		public List< Spot > getTargetList()
+		{
+			return costs.getTargetList();
+		}
+
+		@Override
+		public double getAlternativeCostForSource( final Spot source )
+		{
+			return costs.getAlternativeCostForSource( source );
+		}
+
+		@Override
+		public double getAlternativeCostForTarget( final Spot target )
+		{
+			return costs.getAlternativeCostForTarget( target );
+		}
+
+		@Override
+		public long getProcessingTime()
+		{
+			return 0;
+		}
+	}
+}
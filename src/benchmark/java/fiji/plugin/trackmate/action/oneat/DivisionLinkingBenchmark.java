@@ -0,0 +1,253 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_GLOBAL_DIVISION_LAP;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_MARI_ANGLE;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_USE_MARI_PRINCIPLE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.tracking.jaqaman.LAPUtils;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+/**
+ * Compares the per-mother and the per-frame division linking of
+ * {@link TrackCorrectorRunner#LinkCreator}, on a synthetic label movie where
+ * one daughter of each division starts a new, unlinked track.
+ * <p>
+ * Arguments are <code>key=value</code> pairs: <code>cells</code> (initial
+ * number of cells), <code>frames</code>, <code>density</code> (division
+ * probability per cell and frame), <code>threads</code>, <code>reps</code>
+ * and <code>seed</code>.
+ * <p>
+ * The synthetic movie is also the fixture of {@link CorrectionBenchmark}.
+ */
+public class DivisionLinkingBenchmark
+{
+
+	private static final double RADIUS = 4;
+
+	final Model model = new Model();
+
+	final HashMap< Integer, Pair< Spot, ArrayList< Spot > > > mitosisspots = new HashMap<>();
+
+	final HashSet< List< Spot > > divisions = new HashSet<>();
+
+	final ImgPlus< UnsignedShortType > img;
+
+	final TrackMate trackmate;
+
+	public DivisionLinkingBenchmark( final int ncells, final int nframes, final double density, final long seed )
+	{
+		final Random random = new Random( seed );
+		final int size = ( int ) Math.ceil( Math.sqrt( ncells * 2 ) * 6 * RADIUS );
+		final Img< UnsignedShortType > labels = ArrayImgs.unsignedShorts( size, size, 1, nframes );
+		final RandomAccess< UnsignedShortType > ra = labels.randomAccess();
+
+		ArrayList< Spot > current = new ArrayList<>();
+		final ArrayList< Spot > mothers = new ArrayList<>();
+		model.beginUpdate();
+		try
+		{
+			for ( int c = 0; c < ncells; c++ )
+				current.add( addSpot( random.nextDouble() * size, random.nextDouble() * size, 0, size, labels, ra, current.size() + 1 ) );
+
+			for ( int t = 1; t < nframes; t++ )
+			{
+				final ArrayList< Spot > next = new ArrayList<>();
+				for ( final Spot previous : current )
+				{
+					final double x = previous.getDoublePosition( 0 ) + random.nextGaussian();
+					final double y = previous.getDoublePosition( 1 ) + random.nextGaussian();
+					if ( random.nextDouble() < density )
+					{
+						// One daughter continues the track, the other is a new one
+						final double angle = random.nextDouble() * Math.PI;
+						final double dx = 1.5 * RADIUS * Math.cos( angle );
+						final double dy = 1.5 * RADIUS * Math.sin( angle );
+						final Spot kept = addSpot( x + dx, y + dy, t, size, labels, ra, next.size() + 1 );
+						next.add( kept );
+						final Spot lost = addSpot( x - dx, y - dy, t, size, labels, ra, next.size() + 1 );
+						next.add( lost );
+						model.addEdge( previous, kept, 1 );
+						mothers.add( previous );
+						divisions.add( Arrays.asList( previous, lost ) );
+					}
+					else
+					{
+						final Spot spot = addSpot( x, y, t, size, labels, ra, next.size() + 1 );
+						next.add( spot );
+						model.addEdge( previous, spot, 1 );
+					}
+				}
+				current = next;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		for ( final Spot mother : mothers )
+		{
+			final Integer trackID = model.getTrackModel().trackIDOf( mother );
+			mitosisspots.computeIfAbsent( trackID, id -> new ValuePair<>( mother, new ArrayList<>() ) ).getB().add( mother );
+		}
+
+		img = new ImgPlus<>( labels, "labels", new AxisType[] { Axes.X, Axes.Y, Axes.Z, Axes.TIME } );
+		trackmate = new TrackMate( model, new Settings( ImageJFunctions.wrap( labels, "labels" ) ) );
+	}
+
+	private Spot addSpot( final double x, final double y, final int frame, final int size, final Img< UnsignedShortType > labels, final RandomAccess< UnsignedShortType > ra, final int label )
+	{
+		final double cx = Math.max( RADIUS, Math.min( size - 1 - RADIUS, x ) );
+		final double cy = Math.max( RADIUS, Math.min( size - 1 - RADIUS, y ) );
+		final Spot spot = new Spot( cx, cy, 0, RADIUS, 1 );
+		model.addSpotTo( spot, frame );
+
+		ra.setPosition( 0, 2 );
+		ra.setPosition( frame, 3 );
+		for ( long px = ( long ) ( cx - RADIUS ); px <= ( long ) ( cx + RADIUS ); px++ )
+			for ( long py = ( long ) ( cy - RADIUS ); py <= ( long ) ( cy + RADIUS ); py++ )
+			{
+				if ( ( px - cx ) * ( px - cx ) + ( py - cy ) * ( py - cy ) > RADIUS * RADIUS )
+					continue;
+				ra.setPosition( px, 0 );
+				ra.setPosition( py, 1 );
+				ra.get().set( label );
+			}
+		return spot;
+	}
+
+	Map< String, Object > getSettings( final boolean global )
+	{
+		final Map< String, Object > settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.put( KEY_LINKING_MAX_DISTANCE, 4 * RADIUS );
+		settings.put( KEY_SPLITTING_MAX_DISTANCE, 4 * RADIUS );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, 2 );
+		settings.put( KEY_USE_MARI_PRINCIPLE, false );
+		settings.put( KEY_MARI_ANGLE, 30. );
+		settings.put( KEY_GLOBAL_DIVISION_LAP, global );
+		return settings;
+	}
+
+	/**
+	 * Runs the link creation once and returns the links it adds.
+	 */
+	public List< List< Spot > > run( final boolean global, final int numThreads ) throws Exception
+	{
+		final List< Future< Graphobject > > results = TrackCorrectorRunner.LinkCreator( model, trackmate, null, null, mitosisspots, getSettings( global ), 4, Logger.VOID_LOGGER, img, null, numThreads, new double[] { 1, 1, 1 }, false );
+		final List< List< Spot > > added = new ArrayList<>();
+		for ( final Future< Graphobject > result : results )
+			for ( final Pair< Spot, Spot > edge : result.get().addedges )
+				added.add( Arrays.asList( edge.getA(), edge.getB() ) );
+		return added;
+	}
+
+	private void report( final String name, final boolean global, final int numThreads, final int reps ) throws Exception
+	{
+		// Warm up
+		List< List< Spot > > added = run( global, numThreads );
+
+		final long[] times = new long[ reps ];
+		for ( int r = 0; r < reps; r++ )
+		{
+			final long start = System.nanoTime();
+			added = run( global, numThreads );
+			times[ r ] = System.nanoTime() - start;
+		}
+		Arrays.sort( times );
+
+		final HashMap< Spot, Integer > sourcesPerTarget = new HashMap<>();
+		int found = 0;
+		for ( final List< Spot > link : added )
+		{
+			sourcesPerTarget.merge( link.get( 1 ), 1, Integer::sum );
+			if ( divisions.contains( link ) )
+				found++;
+		}
+		int conflicts = 0;
+		for ( final int n : sourcesPerTarget.values() )
+			if ( n > 1 )
+				conflicts++;
+
+		System.out.println( String.format( "%-10s median %8.1f ms, min %8.1f ms, %6d links added, %6d of %6d divisions recovered, %5d targets linked twice",
+				name, times[ reps / 2 ] / 1e6, times[ 0 ] / 1e6, added.size(), found, divisions.size(), conflicts ) );
+	}
+
+	public static void main( final String[] args ) throws Exception
+	{
+		final Map< String, String > params = new HashMap<>();
+		for ( final String arg : args )
+		{
+			final String[] kv = arg.split( "=", 2 );
+			if ( kv.length == 2 )
+				params.put( kv[ 0 ], kv[ 1 ] );
+		}
+		final int cells = Integer.parseInt( params.getOrDefault( "cells", "200" ) );
+		final int frames = Integer.parseInt( params.getOrDefault( "frames", "20" ) );
+		final double density = Double.parseDouble( params.getOrDefault( "density", "0.02" ) );
+		final int threads = Integer.parseInt( params.getOrDefault( "threads", "" + Runtime.getRuntime().availableProcessors() ) );
+		final int reps = Integer.parseInt( params.getOrDefault( "reps", "5" ) );
+		final long seed = Long.parseLong( params.getOrDefault( "seed", "1" ) );
+
+		final DivisionLinkingBenchmark benchmark = new DivisionLinkingBenchmark( cells, frames, density, seed );
+		System.out.println( String.format( "%d spots, %d divisions over %d frames, %d threads",
+				benchmark.model.getSpots().getNSpots( false ), benchmark.divisions.size(), frames, threads ) );
+
+		benchmark.report( "per-mother", false, threads, reps );
+		benchmark.report( "per-frame", true, threads, reps );
+
+		final Set< List< Spot > > permother = new HashSet<>( benchmark.run( false, threads ) );
+		final Set< List< Spot > > perframe = new HashSet<>( benchmark.run( true, threads ) );
+		final Set< List< Spot > > common = new HashSet<>( permother );
+		common.retainAll( perframe );
+		System.out.println( String.format( "%d links added by both modes, %d by per-mother only, %d by per-frame only",
+				common.size(), permother.size() - common.size(), perframe.size() - common.size() ) );
+	}
+}
@@ -0,0 +1,401 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.Arrays;
+
+import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.OutputAlgorithm;
+
+/**
+ * Solves the linear assignment problem of Jaqaman <i>et al.</i>, Nature
+ * Methods, <b>2008</b>, Figure 1b, without building its block matrix.
+ * <p>
+ * For <code>n</code> sources and <code>m</code> targets, the block matrix is
+ * <code>(n + m) x (m + n)</code>: the linking costs top-left, the alternative
+ * cost of each source on the diagonal top-right, the alternative cost of each
+ * target on the diagonal bottom-left, and the transposed structure of the
+ * linking costs filled with a single cost bottom-right. This solver only
+ * stores the linking costs in compressed row form, the column structure of
+ * these, and the alternative costs. The other blocks are enumerated when a row
+ * is scanned.
+ * <p>
+ * The problem is solved by successive shortest augmenting paths, with
+ * Dijkstra's algorithm on the reduced costs given by column potentials, as in
+ * the augmentation phase of Jonker and Volgenant. The optimal total cost is
+ * the one of {@link fiji.plugin.trackmate.tracking.jaqaman.costmatrix.LAPJV}
+ * on the block matrix; assignments of equal total cost may differ.
+ */
+public class JaqamanLAP extends BenchmarkAlgorithm implements OutputAlgorithm< int[] >
+{
+
+	private final SparseLinkCosts links;
+
+	private final double[] rowAlternativeCosts;
+
+	private final double[] colAlternativeCosts;
+
+	private final double alternativeAlternativeCost;
+
+	private int[] assignment;
+
+	private double[] assignmentCosts;
+
+	/**
+	 * Creates a solver for the specified linking costs.
+	 *
+	 * @param links
+	 *            the linking costs of the sources (rows) to the targets
+	 *            (columns).
+	 * @param rowAlternativeCosts
+	 *            the cost of not linking each source.
+	 * @param colAlternativeCosts
+	 *            the cost of not linking each target.
+	 * @param alternativeAlternativeCost
+	 *            the cost of the bottom-right block, usually the smallest
+	 *            alternative cost.
+	 */
+	public JaqamanLAP( final SparseLinkCosts links, final double[] rowAlternativeCosts, final double[] colAlternativeCosts, final double alternativeAlternativeCost )
+	{
+		this.links = links;
+		this.rowAlternativeCosts = rowAlternativeCosts;
+		this.colAlternativeCosts = colAlternativeCosts;
+		this.alternativeAlternativeCost = alternativeAlternativeCost;
+	}
+
+	/**
+	 * Returns the target each source is linked to, or <code>-1</code> if it is
+	 * not linked.
+	 */
+	@Override
+	public int[] getResult()
+	{
+		return assignment;
+	}
+
+	/**
+	 * Returns the linking cost of each source, or <code>NaN</code> if it is
+	 * not linked. These are the costs of the matched entries kept by the
+	 * solver, for which the reduced cost is zero.
+	 */
+	public double[] getAssignmentCosts()
+	{
+		return assignmentCosts;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( rowAlternativeCosts.length != links.nRows || colAlternativeCosts.length != links.nCols )
+		{
+			errorMessage = "The alternative costs do not match the size of the cost matrix.";
+			return false;
+		}
+		if ( Double.isNaN( alternativeAlternativeCost ) )
+		{
+			errorMessage = "The alternative cost is not a number.";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		final int n = links.nRows;
+		final int m = links.nCols;
+		final int size = n + m;
+
+		/*
+		 * Column structure of the linking costs: the rows linked to each
+		 * target, which are the bottom-right block of the target row.
+		 */
+		final int[] colStart = new int[ m + 1 ];
+		for ( int k = 0; k < links.start[ n ]; k++ )
+			colStart[ links.kk[ k ] + 1 ]++;
+		for ( int j = 0; j < m; j++ )
+			colStart[ j + 1 ] += colStart[ j ];
+		final int[] colRows = new int[ colStart[ m ] ];
+		final int[] fill = Arrays.copyOf( colStart, m );
+		for ( int i = 0; i < n; i++ )
+			for ( int k = links.start[ i ]; k < links.start[ i + 1 ]; k++ )
+				colRows[ fill[ links.kk[ k ] ]++ ] = i;
+
+		/*
+		 * Rows 0 to n - 1 are the sources, n to n + m - 1 the alternatives of
+		 * the targets. Columns 0 to m - 1 are the targets, m to m + n - 1 the
+		 * alternatives of the sources.
+		 */
+		final int[] rowOfCol = new int[ size ];
+		final int[] colOfRow = new int[ size ];
+		final double[] assignedCost = new double[ size ];
+		Arrays.fill( rowOfCol, -1 );
+		Arrays.fill( colOfRow, -1 );
+		final double[] v = new double[ size ];
+
+		// Dijkstra scratch, reset for the columns touched only
+		final double[] dist = new double[ size ];
+		Arrays.fill( dist, Double.POSITIVE_INFINITY );
+		final int[] predRow = new int[ size ];
+		final double[] predCost = new double[ size ];
+		final boolean[] scanned = new boolean[ size ];
+		final int[] touched = new int[ size ];
+		final ColumnHeap heap = new ColumnHeap( size );
+
+		for ( int root = 0; root < size; root++ )
+		{
+			int nTouched = 0;
+			int sink = -1;
+			double sinkDist = 0;
+
+			int row = root;
+			double rowDist = 0;
+			double rowPotential = 0;
+			while ( true )
+			{
+				/*
+				 * Relax the columns of the row, top-left and top-right blocks
+				 * for a source, bottom-left and bottom-right for a target.
+				 */
+				final int from;
+				final int to;
+				if ( row < n )
+				{
+					from = links.start[ row ];
+					to = links.start[ row + 1 ];
+				}
+				else
+				{
+					from = colStart[ row - n ];
+					to = colStart[ row - n + 1 ];
+				}
+				for ( int k = from - 1; k < to; k++ )
+				{
+					final int col;
+					final double cost;
+					if ( row < n )
+					{
+						col = k < from ? m + row : links.kk[ k ];
+						cost = k < from ? rowAlternativeCosts[ row ] : links.cc[ k ];
+					}
+					else
+					{
+						col = k < from ? row - n : m + colRows[ k ];
+						cost = k < from ? colAlternativeCosts[ row - n ] : alternativeAlternativeCost;
+					}
+					if ( scanned[ col ] )
+						continue;
+
+					final double d = rowDist + cost - v[ col ] - rowPotential;
+					if ( d < dist[ col ] )
+					{
+						if ( dist[ col ] == Double.POSITIVE_INFINITY )
+							touched[ nTouched++ ] = col;
+						dist[ col ] = d;
+						predRow[ col ] = row;
+						predCost[ col ] = cost;
+						heap.push( col, d );
+					}
+				}
+
+				if ( heap.isEmpty() )
+				{
+					errorMessage = "No assignment can be found for row " + root + ".";
+					return false;
+				}
+
+				final int col = heap.pop();
+				scanned[ col ] = true;
+				if ( rowOfCol[ col ] < 0 )
+				{
+					sink = col;
+					sinkDist = dist[ col ];
+					break;
+				}
+				row = rowOfCol[ col ];
+				rowDist = dist[ col ];
+				rowPotential = assignedCost[ row ] - v[ col ];
+			}
+
+			// Update the potentials of the scanned columns
+			for ( int t = 0; t < nTouched; t++ )
+			{
+				final int col = touched[ t ];
+				if ( scanned[ col ] )
+					v[ col ] += dist[ col ] - sinkDist;
+			}
+
+			// Augment along the path
+			int col = sink;
+			while ( true )
+			{
+				final int r = predRow[ col ];
+				final int previous = colOfRow[ r ];
+				rowOfCol[ col ] = r;
+				colOfRow[ r ] = col;
+				assignedCost[ r ] = predCost[ col ];
+				if ( r == root )
+					break;
+				col = previous;
+			}
+
+			// Reset the scratch
+			for ( int t = 0; t < nTouched; t++ )
+			{
+				final int c = touched[ t ];
+				dist[ c ] = Double.POSITIVE_INFINITY;
+				scanned[ c ] = false;
+			}
+			heap.clear();
+		}
+
+		assignment = new int[ n ];
+		assignmentCosts = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final boolean linked = colOfRow[ i ] < m;
+			assignment[ i ] = linked ? colOfRow[ i ] : -1;
+			assignmentCosts[ i ] = linked ? assignedCost[ i ] : Double.NaN;
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Binary min-heap of column indices on their tentative distance, with
+	 * decrease-key.
+	 */
+	private static final class ColumnHeap
+	{
+
+		private final int[] heap;
+
+		private final double[] keys;
+
+		private final int[] position;
+
+		private int size = 0;
+
+		private ColumnHeap( final int capacity )
+		{
+			heap = new int[ capacity ];
+			keys = new double[ capacity ];
+			position = new int[ capacity ];
+			Arrays.fill( position, -1 );
+		}
+
+		private boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		/**
+		 * Inserts a column, or decreases its key if it is already in.
+		 */
+		private void push( final int col, final double key )
+		{
+			int p = position[ col ];
+			if ( p < 0 )
+			{
+				p = size++;
+				heap[ p ] = col;
+				position[ col ] = p;
+			}
+			keys[ p ] = key;
+			siftUp( p );
+		}
+
+		/**
+		 * Removes the column of smallest key.
+		 */
+		private int pop()
+		{
+			final int top = heap[ 0 ];
+			position[ top ] = -1;
+			size--;
+			if ( size > 0 )
+			{
+				heap[ 0 ] = heap[ size ];
+				keys[ 0 ] = keys[ size ];
+				position[ heap[ 0 ] ] = 0;
+				siftDown( 0 );
+			}
+			return top;
+		}
+
+		private void clear()
+		{
+			for ( int p = 0; p < size; p++ )
+				position[ heap[ p ] ] = -1;
+			size = 0;
+		}
+
+		private void siftUp( int p )
+		{
+			final int col = heap[ p ];
+			final double key = keys[ p ];
+			while ( p > 0 )
+			{
+				final int parent = ( p - 1 ) >> 1;
+				if ( keys[ parent ] <= key )
+					break;
+				move( parent, p );
+				p = parent;
+			}
+			heap[ p ] = col;
+			keys[ p ] = key;
+			position[ col ] = p;
+		}
+
+		private void siftDown( int p )
+		{
+			final int col = heap[ p ];
+			final double key = keys[ p ];
+			while ( true )
+			{
+				int child = 2 * p + 1;
+				if ( child >= size )
+					break;
+				if ( child + 1 < size && keys[ child + 1 ] < keys[ child ] )
+					child++;
+				if ( keys[ child ] >= key )
+					break;
+				move( child, p );
+				p = child;
+			}
+			heap[ p ] = col;
+			keys[ p ] = key;
+			position[ col ] = p;
+		}
+
+		private void move( final int from, final int to )
+		{
+			heap[ to ] = heap[ from ];
+			keys[ to ] = keys[ from ];
+			position[ heap[ to ] ] = to;
+		}
+	}
+}
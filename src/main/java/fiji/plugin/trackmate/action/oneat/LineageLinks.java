@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.Spot;
+import net.imglib2.util.Pair;
+
+/**
+ * Collects the link edits of the mother cells of one lineage, computed by
+ * separate tasks, and completes a single result for the lineage once all of
+ * them are in. The edits are merged in the order of the mother cells, as if
+ * the lineage had been processed by one task.
+ */
+class LineageLinks {
+
+	/**
+	 * The merged edits of the lineage, completed by the last of its tasks.
+	 */
+	final CompletableFuture<Graphobject> result = new CompletableFuture<>();
+
+	private final Graphobject[] parts;
+
+	private final AtomicInteger remaining;
+
+	private final BlockingQueue<Future<Graphobject>> completed;
+
+	/**
+	 * 
+	 * @param nparts    The number of mother cells of the lineage
+	 * @param completed The queue the result is put in when it is done
+	 */
+	LineageLinks(final int nparts, final BlockingQueue<Future<Graphobject>> completed) {
+
+		this.parts = new Graphobject[nparts];
+		this.remaining = new AtomicInteger(nparts);
+		this.completed = completed;
+		if (nparts == 0) {
+			result.complete(merge());
+			completed.add(result);
+		}
+	}
+
+	/**
+	 * Records the edits of a mother cell.
+	 */
+	void done(final int part, final Graphobject edits) {
+
+		parts[part] = edits;
+		finish();
+	}
+
+	/**
+	 * Records that the task of a mother cell failed, which fails the lineage.
+	 */
+	void failed(final Throwable e) {
+
+		result.completeExceptionally(e);
+		finish();
+	}
+
+	/**
+	 * Records that the task of a mother cell did not run because the lineage
+	 * result was already done.
+	 */
+	void skipped() {
+
+		finish();
+	}
+
+	private void finish() {
+
+		// The decrement orders the parts written by the other tasks before the
+		// merge of the last one
+		if (remaining.decrementAndGet() > 0)
+			return;
+		result.complete(merge());
+		completed.add(result);
+	}
+
+	private Graphobject merge() {
+
+		final ArrayList<Pair<Spot, Spot>> removeedges = new ArrayList<>();
+		final ArrayList<Pair<Spot, Spot>> addedges = new ArrayList<>();
+		final ArrayList<Double> costlist = new ArrayList<>();
+		for (final Graphobject part : parts) {
+			if (part == null)
+				continue;
+			removeedges.addAll(part.removeedges);
+			addedges.addAll(part.addedges);
+			costlist.addAll(part.costlist);
+		}
+		return new Graphobject(removeedges, addedges, costlist);
+	}
+
+}
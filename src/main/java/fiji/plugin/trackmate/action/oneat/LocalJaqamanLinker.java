@@ -21,14 +21,19 @@
  */
 package fiji.plugin.trackmate.action.oneat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 import fiji.plugin.trackmate.Logger;
@@ -47,8 +52,16 @@ import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
  * @param <J>
  *            the type of the target objects to link.
  */
-public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >
+public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >, MultiThreaded
 {
+	private List< K > sources;
+
+	private List< J > targets;
+
+	private int[] assignment;
+
+	private double[] assignmentCosts;
+
 	private Map< K, J > assignments;
 
 	private Map< K, Double > costs;
@@ -56,8 +69,10 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 	private final CostMatrixCreator< K, J > costMatrixCreator;
 
 	private final Logger logger;
-	
 
+	private int numThreads;
+
+	private boolean useLAPJV = false;
 
 	/**
 	 * Creates a new linker for the specified cost matrix creator. See Jaqaman
@@ -72,7 +87,7 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 	{
 		this.costMatrixCreator = costMatrixCreator;
 		this.logger = logger;
-		
+		setNumThreads();
 	}
 
 
@@ -81,7 +96,9 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 	 * Returns the resulting assignments from this algorithm.
 	 * <p>
 	 * It takes the shape of a map, such that if <code>source</code> is a key of
-	 * the map, it is assigned to <code>target = map.get(source)</code>.
+	 * the map, it is assigned to <code>target = map.get(source)</code>. The
+	 * map is built on the first call, {@link #getAssignment()} gives the same
+	 * result without boxing.
 	 * 
 	 * @return the assignment map.
 	 * @see #getAssignmentCosts()
@@ -89,6 +106,14 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 	@Override
 	public Map< K, J > getResult()
 	{
+		if ( null == assignments && null != assignment )
+		{
+			final Map< K, J > map = new HashMap< >();
+			for ( int i = 0; i < assignment.length; i++ )
+				if ( assignment[ i ] >= 0 )
+					map.put( sources.get( i ), targets.get( assignment[ i ] ) );
+			assignments = map;
+		}
 		return assignments;
 	}
 
@@ -97,15 +122,60 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 	 * <p>
 	 * It takes the shape of a map, such that if <code>source</code> is a key of
 	 * the map, its assignment as a cost <code>cost = map.get(source)</code>.
+	 * The map is built on the first call, {@link #getCosts()} gives the same
+	 * result without boxing.
 	 * 
 	 * @return the assignment costs.
 	 * @see #getResult()
 	 */
 	public Map< K, Double > getAssignmentCosts()
 	{
+		if ( null == costs && null != assignment )
+		{
+			final Map< K, Double > map = new HashMap< >();
+			for ( int i = 0; i < assignment.length; i++ )
+				if ( assignment[ i ] >= 0 )
+					map.put( sources.get( i ), Double.valueOf( assignmentCosts[ i ] ) );
+			costs = map;
+		}
 		return costs;
 	}
 
+	/**
+	 * Returns the index in {@link #getTargetList()} of the target each source
+	 * of {@link #getSourceList()} is assigned to, or <code>-1</code> if it is
+	 * not assigned.
+	 */
+	public int[] getAssignment()
+	{
+		return assignment;
+	}
+
+	/**
+	 * Returns the cost of the assignment of each source of
+	 * {@link #getSourceList()}, or <code>NaN</code> if it is not assigned.
+	 */
+	public double[] getCosts()
+	{
+		return assignmentCosts;
+	}
+
+	/**
+	 * Returns the sources, the rows of the cost matrix.
+	 */
+	public List< K > getSourceList()
+	{
+		return sources;
+	}
+
+	/**
+	 * Returns the targets, the columns of the cost matrix.
+	 */
+	public List< J > getTargetList()
+	{
+		return targets;
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -133,74 +203,181 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 		final List< K > matrixRows = costMatrixCreator.getSourceList();
 		final List< J > matrixCols = costMatrixCreator.getTargetList();
 
+		assignments = null;
+		costs = null;
+		sources = matrixRows;
+		targets = matrixCols;
 		if ( matrixCols.isEmpty() || matrixRows.isEmpty() )
 		{
-			assignments = Collections.emptyMap();
-			costs = Collections.emptyMap();
+			assignment = new int[ matrixRows.size() ];
+			Arrays.fill( assignment, -1 );
+			assignmentCosts = new double[ matrixRows.size() ];
+			Arrays.fill( assignmentCosts, Double.NaN );
 			final long end = System.currentTimeMillis();
 			processingTime = end - start;
 			return true;
 		}
 
 		/*
-		 * Complement the cost matrix with alternative no linking cost matrix.
+		 * Alternative no linking costs.
 		 */
 
-		
-
 		final int nCols = tl.getNCols();
 		final int nRows = tl.getNRows();
 
+		final double[] rowAlternativeCosts = new double[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+			rowAlternativeCosts[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
+		final double[] colAlternativeCosts = new double[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+			colAlternativeCosts[ j ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( j ) );
+
+		/*
+		 * Bottom right alt. cost is the overall min of alternative costs. This
+		 * deviate or extend a bit the u-track code.
+		 */
+		final double minCost = Math.min( Util.min( colAlternativeCosts ), Util.min( rowAlternativeCosts ) );
+
 		/*
-		 * Top right
+		 * Split the problem in its connected components. The rows and columns
+		 * of different components share no cost, and neither do their
+		 * alternative rows and columns, so each component can be solved on
+		 * its own.
 		 */
 
-		final double[] cctr = new double[ nRows ];
-		final int[] kktr = new int[ nRows ];
+		final SparseLinkCosts links = ( costMatrixCreator instanceof SparseLinkCosts.Provider )
+				? ( ( SparseLinkCosts.Provider ) costMatrixCreator ).getLinkCosts()
+				: SparseLinkCosts.fromMatrix( tl );
+		final int[] rowComponent = new int[ nRows ];
+		final int[] colComponent = new int[ nCols ];
+		final int nComponents = links.connectedComponents( rowComponent, colComponent );
+
+		final int[] rowCount = new int[ nComponents ];
 		for ( int i = 0; i < nRows; i++ )
+			rowCount[ rowComponent[ i ] ]++;
+		final int[] colCount = new int[ nComponents ];
+		for ( int j = 0; j < nCols; j++ )
+			colCount[ colComponent[ j ] ]++;
+
+		// Components of a lone row or column have nothing to solve
+		final List< int[][] > blocks = new ArrayList< >();
+		final int[][] componentRows = new int[ nComponents ][];
+		final int[][] componentCols = new int[ nComponents ][];
+		for ( int c = 0; c < nComponents; c++ )
 		{
-			kktr[ i ] = i;
-			cctr[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
+			if ( rowCount[ c ] == 0 || colCount[ c ] == 0 )
+				continue;
+			componentRows[ c ] = new int[ rowCount[ c ] ];
+			componentCols[ c ] = new int[ colCount[ c ] ];
+			blocks.add( new int[][] { componentRows[ c ], componentCols[ c ] } );
+		}
+		Arrays.fill( rowCount, 0 );
+		Arrays.fill( colCount, 0 );
+		for ( int i = 0; i < nRows; i++ )
+		{
+			final int c = rowComponent[ i ];
+			if ( componentRows[ c ] != null )
+				componentRows[ c ][ rowCount[ c ]++ ] = i;
+		}
+		for ( int j = 0; j < nCols; j++ )
+		{
+			final int c = colComponent[ j ];
+			if ( componentCols[ c ] != null )
+				componentCols[ c ][ colCount[ c ]++ ] = j;
 		}
-		final int[] numbertr = new int[ nRows ];
-		Arrays.fill( numbertr, 1 );
-		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
 
 		/*
-		 * Bottom left
+		 * Solve each component, in parallel if there are several.
 		 */
-		final double[] ccbl = new double[ nCols ];
-		final int[] kkbl = new int[ nCols ];
-		for ( int i = 0; i < kkbl.length; i++ )
+
+		final int[] rowAssignment = new int[ nRows ];
+		Arrays.fill( rowAssignment, -1 );
+		final double[] rowCosts = new double[ nRows ];
+		Arrays.fill( rowCosts, Double.NaN );
+		final int nTasks = Math.max( 1, Math.min( numThreads, blocks.size() ) );
+		if ( nTasks == 1 )
 		{
-			kkbl[ i ] = i;
-			ccbl[ i ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( i ) );
+			for ( final int[][] block : blocks )
+				if ( !solveComponent( links, block[ 0 ], block[ 1 ], rowAlternativeCosts, colAlternativeCosts, minCost, rowAssignment, rowCosts ) )
+					return false;
+		}
+		else
+		{
+			final ExecutorService executor = Executors.newFixedThreadPool( nTasks );
+			try
+			{
+				final List< Future< Boolean > > futures = new ArrayList< >( blocks.size() );
+				for ( final int[][] block : blocks )
+					futures.add( executor.submit( () -> solveComponent( links, block[ 0 ], block[ 1 ], rowAlternativeCosts, colAlternativeCosts, minCost, rowAssignment, rowCosts ) ) );
+				for ( final Future< Boolean > future : futures )
+					if ( !future.get() )
+						return false;
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				errorMessage = "Solving the linking components failed: " + e.getMessage();
+				return false;
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
 		}
-		final int[] numberbl = new int[ nCols ];
-		Arrays.fill( numberbl, 1 );
-		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
 
-		/*
-		 * Bottom right.
-		 * 
-		 * Alt. cost is the overall min of alternative costs. This deviate or
-		 * extend a bit the u-track code.
-		 */
-		final double minCost = Math.min( Util.min( ccbl ), Util.min( cctr ) );
-		final SparseCostMatrix br = tl.transpose();
-		br.fillWith( minCost );
+		assignment = rowAssignment;
+		assignmentCosts = rowCosts;
 
-		/*
-		 * Stitch them together
-		 */
-		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
-		
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
 
-		/*
-		 * Solve the full cost matrix.
-		 */
-		
-		final LAPJV solver = new LAPJV( full );
+		return true;
+	}
+
+	/**
+	 * Solves one connected component of the problem of Jaqaman <i>et al.</i>,
+	 * with the alternative costs read on the fly instead of stitched into a
+	 * block matrix, or with {@link LAPJV} on the block matrix if it is set to,
+	 * and writes the columns the rows of the component are
+	 * linked to and their costs in the result arrays. Rows left unlinked are
+	 * not written.
+	 *
+	 * @return <code>false</code> if the solver failed, with the error message
+	 *         set.
+	 */
+	private boolean solveComponent( final SparseLinkCosts links, final int[] rows, final int[] cols, final double[] rowAlternativeCosts, final double[] colAlternativeCosts, final double minCost, final int[] rowAssignment, final double[] rowCosts )
+	{
+		final double[] rowAlternatives = new double[ rows.length ];
+		for ( int i = 0; i < rows.length; i++ )
+			rowAlternatives[ i ] = rowAlternativeCosts[ rows[ i ] ];
+		final double[] colAlternatives = new double[ cols.length ];
+		for ( int j = 0; j < cols.length; j++ )
+			colAlternatives[ j ] = colAlternativeCosts[ cols[ j ] ];
+
+		final SparseLinkCosts subLinks = links.subMatrix( rows, cols );
+		if ( useLAPJV )
+		{
+			final LAPJV solver = new LAPJV( subLinks.toBlockMatrix( rowAlternatives, colAlternatives, minCost ) );
+			if ( !solver.checkInput() || !solver.process() )
+			{
+				errorMessage = solver.getErrorMessage();
+				return false;
+			}
+
+			// Columns past the targets are the alternative of not linking
+			final int[] assgn = solver.getResult();
+			for ( int i = 0; i < rows.length; i++ )
+			{
+				final int j = assgn[ i ];
+				if ( j < cols.length )
+				{
+					rowAssignment[ rows[ i ] ] = cols[ j ];
+					rowCosts[ rows[ i ] ] = subLinks.get( i, j, Double.NaN );
+				}
+			}
+			return true;
+		}
+
+		final JaqamanLAP solver = new JaqamanLAP( subLinks, rowAlternatives, colAlternatives, minCost );
 		if ( !solver.checkInput() || !solver.process() )
 		{
 			errorMessage = solver.getErrorMessage();
@@ -208,32 +385,22 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 		}
 
 		final int[] assgn = solver.getResult();
-		assignments = new HashMap< >();
-		costs = new HashMap< >();
-		for ( int i = 0; i < assgn.length; i++ )
+		final double[] assgnCosts = solver.getAssignmentCosts();
+		for ( int i = 0; i < rows.length; i++ )
 		{
 			final int j = assgn[ i ];
-			if ( i < matrixRows.size() && j < matrixCols.size() )
+			if ( j >= 0 )
 			{
-				final K source = matrixRows.get( i );
-				final J target = matrixCols.get( j );
-				assignments.put( source, target );
-
-				final double cost = full.get( i, j, Double.POSITIVE_INFINITY );
-				costs.put( source, Double.valueOf( cost ) );
+				rowAssignment[ rows[ i ] ] = cols[ j ];
+				rowCosts[ rows[ i ] ] = assgnCosts[ i ];
 			}
 		}
-
-		
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
-
 		return true;
 	}
 
 	public String resultToString()
 	{
-		if ( null == assignments ) { return "Not solved yet. Process the algorithm prior to calling this method."; }
+		if ( null == getResult() ) { return "Not solved yet. Process the algorithm prior to calling this method."; }
 
 		final HashSet< K > unassignedSources = new HashSet< >( costMatrixCreator.getSourceList() );
 		final HashSet< J > unassignedTargets = new HashSet< >( costMatrixCreator.getTargetList() );
@@ -261,7 +428,7 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 		int cw = 0;
 		for ( final K source : assignments.keySet() )
 		{
-			final double cost = costs.get( source ).doubleValue();
+			final double cost = getAssignmentCosts().get( source ).doubleValue();
 			if ( Math.log10( cost ) > cw )
 			{
 				cw = ( int ) Math.log10( cost );
@@ -278,7 +445,7 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 			unassignedSources.remove( source );
 			unassignedTargets.remove( target );
 
-			final double cost = costs.get( source ).doubleValue();
+			final double cost = getAssignmentCosts().get( source ).doubleValue();
 			str.append( String.format( "%1$-" + sw + "s â†’ %2$" + tw + "s, cost = %3$" + cw + ".1f\n", source.toString(), target.toString(), cost ) );
 		}
 
@@ -302,4 +469,38 @@ public class LocalJaqamanLinker< K extends Comparable< K >, J extends Comparable
 
 		return str.toString();
 	}
+
+	/**
+	 * Sets the linker to solve the components on the calling thread, the
+	 * default. The local problems are small and usually solved from tasks
+	 * already running on a pool; more threads only pay off for a large
+	 * problem with many components.
+	 */
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = 1;
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Sets whether the components are solved by TrackMate's {@link LAPJV} on
+	 * the explicit block matrix instead of {@link JaqamanLAP}. Both give an
+	 * assignment of the same total cost. False by default.
+	 */
+	public void setUseLAPJV( final boolean useLAPJV )
+	{
+		this.useLAPJV = useLAPJV;
+	}
 }
@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.Map;
+
+/**
+ * Management interface of a running oneat track correction, registered by
+ * {@link OneatCorrector#process()} for the time of the run under the name
+ * <code>fiji.plugin.trackmate.oneat:type=OneatCorrection,id=N</code>.
+ * <p>
+ * Stages are named by their {@link OneatRunReport.Stage#getKey() key}.
+ */
+public interface OneatCorrectionMXBean
+{
+
+	/**
+	 * Returns the stages running, separated by commas, or an empty string
+	 * between stages.
+	 */
+	String getStage();
+
+	/**
+	 * Returns the items processed, per stage counting its items: tracks for
+	 * the label index, events for the matches, work units for the link
+	 * creation.
+	 */
+	Map< String, Long > getItemsDone();
+
+	/**
+	 * Returns the items to process, per stage counting its items.
+	 */
+	Map< String, Long > getItemsTotal();
+
+	/**
+	 * Returns the oneat events matched per second since the start of the run.
+	 */
+	double getEventsPerSecond();
+
+	/**
+	 * Returns the time since the start of the run, in milliseconds.
+	 */
+	long getElapsedMillis();
+
+	/**
+	 * Returns the number of entries of the main structures of the
+	 * correction, as they are built: label index, division and apoptosis
+	 * events, mitosis and apoptosis matches, corrected graph edges.
+	 */
+	Map< String, Long > getStructureSizes();
+
+	/**
+	 * Returns the heap used by the JVM, in bytes.
+	 */
+	long getHeapUsed();
+}
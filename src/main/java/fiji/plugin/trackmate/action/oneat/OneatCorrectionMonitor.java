@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import fiji.plugin.trackmate.action.oneat.OneatRunReport.Stage;
+
+/**
+ * The {@link OneatCorrectionMXBean} of one run, reading the live values of the
+ * run report.
+ */
+final class OneatCorrectionMonitor implements OneatCorrectionMXBean
+{
+
+	private static final String DOMAIN = "fiji.plugin.trackmate.oneat";
+
+	private static final AtomicInteger IDS = new AtomicInteger();
+
+	private final OneatRunReport report;
+
+	private final Map< String, Long > structureSizes = new ConcurrentHashMap<>();
+
+	private ObjectName name;
+
+	private OneatCorrectionMonitor( final OneatRunReport report )
+	{
+		this.report = report;
+	}
+
+	/**
+	 * Creates the monitor of a run and registers it to the platform MBean
+	 * server. The monitor is returned even if it could not be registered, as
+	 * the correction does not depend on it.
+	 */
+	static OneatCorrectionMonitor register( final OneatRunReport report )
+	{
+		final OneatCorrectionMonitor monitor = new OneatCorrectionMonitor( report );
+		try
+		{
+			final ObjectName name = new ObjectName( DOMAIN + ":type=OneatCorrection,id=" + IDS.incrementAndGet() );
+			ManagementFactory.getPlatformMBeanServer().registerMBean( monitor, name );
+			monitor.name = name;
+		}
+		catch ( final JMException | SecurityException e )
+		{
+			// Not monitored
+		}
+		return monitor;
+	}
+
+	/**
+	 * Unregisters the monitor at the end of the run.
+	 */
+	void unregister()
+	{
+		if ( name == null )
+			return;
+		try
+		{
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered( name ) )
+				server.unregisterMBean( name );
+		}
+		catch ( final JMException | SecurityException e )
+		{
+			// Already gone
+		}
+		name = null;
+	}
+
+	/**
+	 * Records the number of entries of one of the main structures.
+	 */
+	void setStructureSize( final String structure, final long entries )
+	{
+		structureSizes.put( structure, entries );
+	}
+
+	@Override
+	public String getStage()
+	{
+		final StringBuilder str = new StringBuilder();
+		for ( final Stage stage : Stage.values() )
+		{
+			if ( !report.isRunning( stage ) )
+				continue;
+			if ( str.length() > 0 )
+				str.append( ", " );
+			str.append( stage.getKey() );
+		}
+		return str.toString();
+	}
+
+	@Override
+	public Map< String, Long > getItemsDone()
+	{
+		final Map< String, Long > items = new LinkedHashMap<>();
+		for ( final Stage stage : Stage.values() )
+			if ( report.getItemsTotal( stage ) > 0 )
+				items.put( stage.getKey(), report.getItemsDone( stage ) );
+		return items;
+	}
+
+	@Override
+	public Map< String, Long > getItemsTotal()
+	{
+		final Map< String, Long > items = new LinkedHashMap<>();
+		for ( final Stage stage : Stage.values() )
+			if ( report.getItemsTotal( stage ) > 0 )
+				items.put( stage.getKey(), report.getItemsTotal( stage ) );
+		return items;
+	}
+
+	@Override
+	public double getEventsPerSecond()
+	{
+		final long events = report.getItemsDone( Stage.MITOSIS_MATCH ) + report.getItemsDone( Stage.APOPTOSIS_MATCH );
+		return events / ( report.getElapsedTime() / 1e9 );
+	}
+
+	@Override
+	public long getElapsedMillis()
+	{
+		return report.getElapsedTime() / 1000000;
+	}
+
+	@Override
+	public Map< String, Long > getStructureSizes()
+	{
+		return new LinkedHashMap<>( structureSizes );
+	}
+
+	@Override
+	public long getHeapUsed()
+	{
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
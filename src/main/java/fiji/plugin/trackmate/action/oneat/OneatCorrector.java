@@ -23,11 +23,19 @@ package fiji.plugin.trackmate.action.oneat;
 
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
 
+import java.awt.Color;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
@@ -37,6 +45,8 @@ import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.action.oneat.OneatRunReport.Counter;
+import fiji.plugin.trackmate.action.oneat.OneatRunReport.Stage;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.visualization.hyperstack.SpotOverlay;
 import fiji.plugin.trackmate.visualization.hyperstack.TrackOverlay;
@@ -89,6 +99,10 @@ public class OneatCorrector <T extends NativeType<T>> implements TrackCorrector
 
 	private SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph;
 
+	private Set<Integer> affectedTrackIDs;
+
+	private OneatRunReport report;
+
 	private static final String BASE_ERROR_MESSAGE = "[OneatTrackCorrector] ";
 
 	public OneatCorrector(final File oneatdivision, final File oneatapoptosis, final ImgPlus<T> intimg,
@@ -135,57 +149,115 @@ public class OneatCorrector <T extends NativeType<T>> implements TrackCorrector
 	@Override
 	public boolean process() {
 		final long start = System.currentTimeMillis();
-		divisionspots = new SpotCollection();
-		divisionframespots = new HashMap<Integer, ArrayList<Spot>>();
-
-		apoptosisspots = new SpotCollection();
-		apoptosisframespots = new HashMap<Integer, ArrayList<Spot>>();
-		int ndims = img.numDimensions() - 1;
-		
-		// Get SpotCollection and HashMap of <frame, SpotList> for mitosis/cell death 
-		Pair<Pair<SpotCollection, HashMap<Integer, ArrayList<Spot>>>, Pair<SpotCollection, HashMap<Integer, ArrayList<Spot>>>> result = TrackCorrectorRunner
-				.run(oneatdivision, oneatapoptosis, settings, logger, ndims, calibration);
+		final OneatRunReport report = new OneatRunReport();
+		this.report = report;
 
-		// Get first TrackMate object as in blue print
-		Pair<HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>>, Pair<HashMap<Integer,  Spot>, HashMap<Integer, ArrayList< Spot>>>> Tmobject = TrackCorrectorRunner
-				.getFirstTrackMateobject(model, img, logger, calibration);
+		// Live progress for JMX clients while the correction runs
+		final OneatCorrectionMonitor monitor = OneatCorrectionMonitor.register(report);
+		try {
+			return process(report, monitor, start);
+		} finally {
+			monitor.unregister();
+		}
+	}
 
-		// Oneat found spots for mitosis
-		divisionspots = result.getA().getA();
-		divisionframespots = result.getA().getB();
+	private boolean process(final OneatRunReport report, final OneatCorrectionMonitor monitor, final long start) {
+		final Pair<HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>>, Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>>> Tmobject;
+		final int ndims = img.numDimensions() - 1;
+
+		/*
+		 * The stages before the link correction, as a small dependency graph:
+		 * parsing the oneat csv files and indexing the labels of the track spots
+		 * are independent, and the mitosis and apoptosis matches only read
+		 * their results. At most two stages run at once, the two matches
+		 * sharing the threads and writing to the logger through a
+		 * ConcurrentMatches, and the label index leaving one thread to the
+		 * parse that runs alongside it.
+		 */
+		final int stageThreads = Math.max(1, Math.min(2, numThreads));
+		final ExecutorService stages = Executors.newFixedThreadPool(stageThreads);
+		final int labelThreads = Math.max(1, numThreads - (stageThreads - 1));
+		final int matchThreads = Math.max(1, numThreads / 2);
+		final ConcurrentMatches matches = new ConcurrentMatches(logger, report);
+		try {
 
-		// Oneat found spots for apoptosis
-		apoptosisspots = result.getB().getA();
-		apoptosisframespots = result.getB().getB();
+			// Get SpotCollection and HashMap of <frame, SpotList> for mitosis/cell death
+			final CompletableFuture<Pair<Pair<SpotCollection, HashMap<Integer, ArrayList<Spot>>>, Pair<SpotCollection, HashMap<Integer, ArrayList<Spot>>>>> parse = CompletableFuture
+					.supplyAsync(() -> report.time(Stage.PARSE, () -> TrackCorrectorRunner.run(oneatdivision,
+							oneatapoptosis, settings, logger, ndims, calibration, report)), stages);
 
-		// We have to regerenate the graph and tracks after correction
-		if (divisionspots.keySet().size() > 0)
+			// Get first TrackMate object as in blue print
+			final CompletableFuture<Pair<HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>>, Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>>>> labels = CompletableFuture
+					.supplyAsync(() -> report.time(Stage.LABEL_INDEX, () -> TrackCorrectorRunner
+							.getFirstTrackMateobject(model, img, logger, calibration, labelThreads, report)), stages);
 
 			// This object contains the track ID and a list of split points and the root of
 			// the lineage tree
-			Mitossisspots = TrackCorrectorRunner.getmitosisTrackID(Tmobject.getA(), Tmobject.getB(), model, img, divisionframespots,
-					settings, logger, numThreads, calibration);
-
-		if (apoptosisspots.keySet().size() > 0)
+			final CompletableFuture<HashMap<Integer, Pair<Spot, ArrayList<Spot>>>> mitosis = parse.thenCombineAsync(labels,
+					(events, labelIndex) -> events.getA().getA().keySet().size() > 0
+							? matches.run(Stage.MITOSIS_MATCH, matchlogger -> TrackCorrectorRunner.getmitosisTrackID(
+									labelIndex.getA(), labelIndex.getB(), model, img, events.getA().getB(), settings,
+									matchlogger, matchThreads, calibration, report))
+							: null,
+					stages);
 
 			// This object contains the track ID and a list of single object with the
 			// apoptotic spot where the track has to terminate and the root of the lineage
 			// tree
-			Apoptosisspots = TrackCorrectorRunner.getapoptosisTrackID(Tmobject.getA(), Tmobject.getB(), model, img, apoptosisframespots,
-					settings, logger,numThreads, calibration);
+			final CompletableFuture<HashMap<Integer, Pair<Spot, Spot>>> apoptosis = parse.thenCombineAsync(labels,
+					(events, labelIndex) -> events.getB().getA().keySet().size() > 0
+							? matches.run(Stage.APOPTOSIS_MATCH, matchlogger -> TrackCorrectorRunner.getapoptosisTrackID(
+									labelIndex.getA(), labelIndex.getB(), model, img, events.getB().getB(), settings,
+									matchlogger, matchThreads, calibration, report))
+							: null,
+					stages);
+
+			// Oneat found spots for mitosis
+			divisionspots = parse.join().getA().getA();
+			divisionframespots = parse.join().getA().getB();
+
+			// Oneat found spots for apoptosis
+			apoptosisspots = parse.join().getB().getA();
+			apoptosisframespots = parse.join().getB().getB();
+
+			Tmobject = labels.join();
+			Mitossisspots = mitosis.join();
+			Apoptosisspots = apoptosis.join();
+
+			monitor.setStructureSize("labelIndex", Tmobject.getA().size());
+			monitor.setStructureSize("divisionEvents", divisionspots.getNSpots(false));
+			monitor.setStructureSize("apoptosisEvents", apoptosisspots.getNSpots(false));
+
+			if (Mitossisspots != null)
+				for (Pair<Spot, ArrayList<Spot>> trackspots : Mitossisspots.values())
+					report.add(Counter.MITOSIS_MATCHES, trackspots.getB().size());
+			if (Apoptosisspots != null)
+				report.add(Counter.APOPTOSIS_MATCHES, Apoptosisspots.size());
+			monitor.setStructureSize("mitosisMatches", report.get(Counter.MITOSIS_MATCHES));
+			monitor.setStructureSize("apoptosisMatches", report.get(Counter.APOPTOSIS_MATCHES));
+
+		} catch (CompletionException e) {
+			errorMessage = BASE_ERROR_MESSAGE + "Preparing the track correction failed: " + e.getCause();
+			return false;
+		} finally {
+			stages.shutdownNow();
+		}
 
 	
 	
+		// Never commit the graph of a previous run
+		graph = null;
 		try {
 			graph = TrackCorrectorRunner.getCorrectedTracks(model, trackmate, Tmobject.getA(), Tmobject.getB(),
 					Mitossisspots, Apoptosisspots, settings, ndims, logger, img, divisionframespots, numThreads,
-					calibration, addDisplay);
+					calibration, addDisplay, report);
 		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
+			errorMessage = BASE_ERROR_MESSAGE + "The track correction was interrupted.";
+			return false;
 		} catch (ExecutionException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			errorMessage = BASE_ERROR_MESSAGE + "Correcting the tracks failed: " + e.getCause();
+			return false;
 		}
 
 		// Check that the objects list itself isn't null
@@ -194,8 +266,19 @@ public class OneatCorrector <T extends NativeType<T>> implements TrackCorrector
 			return false;
 		}
 
+		monitor.setStructureSize("correctedGraphEdges", graph.edgeSet().size());
+		final OneatRunReport.Timer committimer = report.start(Stage.MODEL_COMMIT);
+		affectedTrackIDs = TrackCorrectorRunner.commitCorrectedTracks(model, graph, logger, report);
+
 		modelsettings.trackerSettings.put(KEY_ALLOW_TRACK_SPLITTING, true);
-		trackmate.computeTrackFeatures(true);
+		final TrackFeatureUpdater featureUpdater = new TrackFeatureUpdater(model, modelsettings, logger);
+		featureUpdater.setNumThreads(numThreads);
+		final boolean featuresUpdated = featureUpdater.process(affectedTrackIDs);
+		committimer.stop();
+		if (!featuresUpdated) {
+			errorMessage = BASE_ERROR_MESSAGE + "Updating the track features failed.";
+			return false;
+		}
 		logger.setProgress(1d);
 		logger.setStatus("");
 		
@@ -259,11 +342,27 @@ public class OneatCorrector <T extends NativeType<T>> implements TrackCorrector
 
 	}
 
+	@Override
+	public Set<Integer> getAffectedTrackIDs() {
+		return affectedTrackIDs;
+	}
+
 	@Override
 	public long getProcessingTime() {
 		return processingTime;
 	}
 
+	/**
+	 * Returns the timing of the stages and the counters of the last run, also
+	 * available as JSON with {@link OneatRunReport#toJson()}.
+	 * 
+	 * @return the report of the last run, or <code>null</code> if the corrector
+	 *         did not run yet
+	 */
+	public OneatRunReport getReport() {
+		return report;
+	}
+
 	@Override
 	public void setLogger(Logger logger) {
 
@@ -271,4 +370,77 @@ public class OneatCorrector <T extends NativeType<T>> implements TrackCorrector
 
 	}
 
+	/**
+	 * The mitosis and apoptosis matches, that run at the same time. Each gets
+	 * its own logger: its messages are written to the logger of the corrector
+	 * in one block when the match is done, and its progress updates set the
+	 * progress of the corrector to the items done by both matches in the
+	 * report, never lowering it.
+	 */
+	private static class ConcurrentMatches {
+
+		private final Logger logger;
+
+		private final OneatRunReport report;
+
+		private double progress = 0.;
+
+		private ConcurrentMatches(final Logger logger, final OneatRunReport report) {
+			this.logger = logger;
+			this.report = report;
+		}
+
+		/**
+		 * Runs and times a match on the current thread with its own logger.
+		 */
+		private <R> R run(final Stage stage, final Function<Logger, R> match) {
+			final MatchLogger matchlogger = new MatchLogger();
+			try {
+				return report.time(stage, () -> match.apply(matchlogger));
+			} finally {
+				synchronized (this) {
+					for (final Runnable message : matchlogger.messages)
+						message.run();
+				}
+			}
+		}
+
+		private synchronized void updateProgress() {
+			final long total = report.getItemsTotal(Stage.MITOSIS_MATCH) + report.getItemsTotal(Stage.APOPTOSIS_MATCH);
+			if (total == 0)
+				return;
+			final double done = (double) (report.getItemsDone(Stage.MITOSIS_MATCH)
+					+ report.getItemsDone(Stage.APOPTOSIS_MATCH)) / total;
+			if (done > progress) {
+				progress = done;
+				logger.setProgress(done);
+			}
+		}
+
+		private class MatchLogger extends Logger {
+
+			private final List<Runnable> messages = new ArrayList<>();
+
+			@Override
+			public void log(final String message, final Color color) {
+				messages.add(() -> logger.log(message, color));
+			}
+
+			@Override
+			public void error(final String message) {
+				messages.add(() -> logger.error(message));
+			}
+
+			@Override
+			public void setProgress(final double val) {
+				updateProgress();
+			}
+
+			@Override
+			public void setStatus(final String status) {
+				logger.setStatus(status);
+			}
+		}
+	}
+
 }
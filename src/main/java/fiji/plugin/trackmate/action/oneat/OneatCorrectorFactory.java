@@ -59,6 +59,16 @@ public  class  OneatCorrectorFactory implements TrackCorrectorFactory  {
     public static final String KEY_BREAK_LINKS = "BREAK_LINKS";
     public static final String KEY_USE_MARI_PRINCIPLE = "USE_MARI_PRINCIPLE";
     public static final String KEY_MARI_ANGLE = "MARI_ANGLE";
+    /**
+     * Optional, solve one assignment problem per frame over all the mother
+     * cells of the frame instead of one per mother cell. False if missing.
+     */
+    public static final String KEY_GLOBAL_DIVISION_LAP = "GLOBAL_DIVISION_LAP";
+    /**
+     * Optional, solve the division links with TrackMate's LAPJV on the full
+     * block matrix instead of the sparse Jaqaman solver. False if missing.
+     */
+    public static final String KEY_USE_LAPJV = "USE_LAPJV";
 	public static final String THIS_TRACK_CORRECTOR = "Oneat_Corrector";
 	public static final String THIS_NAME = "Oneat Corrector";
 	public static final String THIS_INFO_TEXT = "<html>"
@@ -129,6 +139,10 @@ public  class  OneatCorrectorFactory implements TrackCorrectorFactory  {
 		ok = ok & writeAttribute( settings, element, KEY_USE_MARI_PRINCIPLE, Boolean.class, str );
 		ok = ok & writeAttribute( settings, element, KEY_MARI_ANGLE, Double.class, str );
 		ok = ok & writeAttribute( settings, element, KEY_PROB_THRESHOLD, Double.class, str );
+		if ( settings.containsKey( KEY_GLOBAL_DIVISION_LAP ) )
+			ok = ok & writeAttribute( settings, element, KEY_GLOBAL_DIVISION_LAP, Boolean.class, str );
+		if ( settings.containsKey( KEY_USE_LAPJV ) )
+			ok = ok & writeAttribute( settings, element, KEY_USE_LAPJV, Boolean.class, str );
 		return ok;
 	}
 
@@ -147,6 +161,10 @@ public  class  OneatCorrectorFactory implements TrackCorrectorFactory  {
 		ok = ok & readDoubleAttribute( element, settings, KEY_MARI_ANGLE, errorHolder );
 		ok = ok & readBooleanAttribute( element, settings, KEY_USE_MARI_PRINCIPLE, errorHolder );
 		ok = ok & readDoubleAttribute( element, settings, KEY_PROB_THRESHOLD, errorHolder );
+		if ( element.getAttribute( KEY_GLOBAL_DIVISION_LAP ) != null )
+			ok = ok & readBooleanAttribute( element, settings, KEY_GLOBAL_DIVISION_LAP, errorHolder );
+		if ( element.getAttribute( KEY_USE_LAPJV ) != null )
+			ok = ok & readBooleanAttribute( element, settings, KEY_USE_LAPJV, errorHolder );
 		return ok;
 	}
 
@@ -43,19 +43,25 @@ import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunctio
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.CostMatrixCreator;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.DefaultCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.GraphSegmentSplitter;
-import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.ResizableDoubleArray;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.util.Util;
 
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultWeightedEdge;
-public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiThreaded {
+public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, SparseLinkCosts.Provider, MultiThreaded {
 
 
 
@@ -63,12 +69,20 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 
 	private static final String BASE_ERROR_MESSAGE = "[JaqamanSegmentCostMatrixCreator] ";
 
+	/**
+	 * How many chunks of sources per thread, so that a thread given the
+	 * crowded frames does not leave the others idle.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
 	private final Map< String, Object > settings;
 
 	private String errorMessage;
 
 	private SparseCostMatrix scm;
 
+	private SparseLinkCosts sparseCosts;
+
 	private long processingTime;
 
 	private List< Spot > uniqueSources;
@@ -148,6 +162,7 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 			uniqueSources = Collections.emptyList();
 			uniqueTargets = Collections.emptyList();
 			scm = new SparseCostMatrix( new double[ 0 ], new int[ 0 ], new int[ 0 ], 0 );
+			sparseCosts = new SparseLinkCosts( 0, 0, new int[ 1 ], new int[ 0 ], new double[ 0 ] );
 			return true;
 		}
 
@@ -177,102 +192,119 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 		
 		
 
-		final Object lock = new Object();
-
 		/*
-		 * Sources and targets.
+		 * Index the segment starts by frame and position, so that a source
+		 * only visits the starts in its frame window and within the max
+		 * distance. The costs are square distances, possibly increased by
+		 * feature penalties, so the starts further away could not pass the
+		 * cost threshold anyway. The candidates of a source are visited in the
+		 * order of the start list, as a full scan would, so that the cost
+		 * matrix creator receives the same input.
 		 */
-		final ArrayList< Spot > sources = new ArrayList< >();
-		final ArrayList< Spot > targets = new ArrayList< >();
-		// Corresponding costs.
-		final ResizableDoubleArray linkCosts = new ResizableDoubleArray();
+		final SpotGridIndex startIndex = new SpotGridIndex( segmentStarts, Math.max( gcMaxDistance, sMaxDistance ) );
+		final Map< Spot, Integer > startOrder = new HashMap< >( 2 * segmentStarts.size() );
+		for ( int i = 0; i < segmentStarts.size(); i++ )
+			startOrder.put( segmentStarts.get( i ), i );
 
 		/*
-		 * A. We iterate over all segment ends, targeting 1st the segment starts
-		 * (gap-closing) then the segment middles (merging).
+		 * The sources are the segment middles targeting the segment starts
+		 * (A, gap-closing), then the segment ends targeting the segment starts
+		 * of the next frame (B, splitting). They are cut in contiguous chunks,
+		 * each filling its own buffer, and the buffers are concatenated in
+		 * chunk order: the links come in the same order whatever the number of
+		 * threads.
 		 */
-
-		
-		for ( final Spot source : allMiddles )
+		final int nMiddles = allowGapClosing ? allMiddles.size() : 0;
+		final int nSources = nMiddles + segmentEnds.size();
+		final int nChunks = Math.max( 1, Math.min( nSources, CHUNKS_PER_THREAD * numThreads ) );
+		final LinkBuffer[] buffers = new LinkBuffer[ nChunks ];
+		final List< Callable< Void > > tasks = new ArrayList< >( nChunks );
+		for ( int chunk = 0; chunk < nChunks; chunk++ )
 		{
-			
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-
-					/*
-					 * Iterate over segment starts - GAP-CLOSING.
-					 */
-
-					if ( allowGapClosing )
+			final int from = ( int ) ( ( long ) nSources * chunk / nChunks );
+			final int to = ( int ) ( ( long ) nSources * ( chunk + 1 ) / nChunks );
+			final LinkBuffer buffer = new LinkBuffer();
+			buffers[ chunk ] = buffer;
+			tasks.add( () -> {
+				for ( int s = from; s < to; s++ )
+				{
+					if ( s < nMiddles )
 					{
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be within user
-							// specification.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff < 1 || tdiff > maxFrameInterval )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = gcCostFunction.linkingCost( source, target );
-							if ( cost > gcCostThreshold )
-							{
-								continue;
-							}
-
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
+						// A. Frame interval must be within user specification.
+						final Spot source = allMiddles.get( s );
+						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+						final int[] candidates = candidateStarts( startIndex, startOrder, source, sourceFrame + 1, sourceFrame + maxFrameInterval, gcMaxDistance );
+						buffer.addLinks( s, source, candidates, segmentStarts, gcCostFunction, gcCostThreshold );
 					}
+					else
+					{
+						// B. Frame interval must be 1.
+						final Spot source = segmentEnds.get( s - nMiddles );
+						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+						final int[] candidates = candidateStarts( startIndex, startOrder, source, sourceFrame + 1, sourceFrame + 1, sMaxDistance );
+						buffer.addLinks( s, source, candidates, segmentStarts, sCostFunction, sCostThreshold );
+					}
+				}
+				return null;
+			} );
+		}
 
-					/*
-					 * Iterate over middle points - MERGING.
-					 */
-
-					
+		final int nTasks = Math.min( numThreads, nChunks );
+		if ( nTasks <= 1 )
+		{
+			for ( final Callable< Void > task : tasks )
+			{
+				try
+				{
+					task.call();
 				}
-			
+				catch ( final Exception e )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "Computing the linking costs failed: " + e.getMessage();
+					return false;
+				}
+			}
+		}
+		else
+		{
+			final ExecutorService executor = Executors.newFixedThreadPool( nTasks );
+			try
+			{
+				for ( final Future< Void > future : executor.invokeAll( tasks ) )
+					future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Computing the linking costs failed: " + e.getMessage();
+				return false;
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
 
-	
-			
-			for ( final Spot source : segmentEnds )
+		/*
+		 * Sources and targets, with their corresponding costs.
+		 */
+		int nLinks = 0;
+		for ( final LinkBuffer buffer : buffers )
+			nLinks += buffer.n;
+		final ArrayList< Spot > sources = new ArrayList< >( nLinks );
+		final ArrayList< Spot > targets = new ArrayList< >( nLinks );
+		final double[] linkCosts = new double[ nLinks ];
+		int offset = 0;
+		for ( final LinkBuffer buffer : buffers )
+		{
+			for ( int l = 0; l < buffer.n; l++ )
 			{
-				
-						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-
-							if ( tdiff != 1 )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = sCostFunction.linkingCost( source, target );
-							if ( cost > sCostThreshold )
-							{
-								continue;
-							}
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
-					}
-				
-		
-		linkCosts.trimToSize();
+				final int s = buffer.sources[ l ];
+				sources.add( s < nMiddles ? allMiddles.get( s ) : segmentEnds.get( s - nMiddles ) );
+				targets.add( segmentStarts.get( buffer.targets[ l ] ) );
+			}
+			System.arraycopy( buffer.costs, 0, linkCosts, offset, buffer.n );
+			offset += buffer.n;
+		}
 
 		/*
 		 * Build a sparse cost matrix from this. If the accepted costs are not
@@ -285,6 +317,7 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 			uniqueTargets = Collections.emptyList();
 			alternativeCost = Double.NaN;
 			scm = null;
+			sparseCosts = null;
 			/*
 			 * CAREFUL! We return null if no acceptable links are found.
 			 */
@@ -292,7 +325,7 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 		else
 		{
 
-			final DefaultCostMatrixCreator< Spot, Spot > creator = new DefaultCostMatrixCreator< >( sources, targets, linkCosts.data, alternativeCostFactor, percentile );
+			final DefaultCostMatrixCreator< Spot, Spot > creator = new DefaultCostMatrixCreator< >( sources, targets, linkCosts, alternativeCostFactor, percentile );
 			if ( !creator.checkInput() || !creator.process() )
 			{
 				errorMessage = "Linking track segments: " + creator.getErrorMessage();
@@ -304,15 +337,16 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 			
 			
 				if ( percentile == 1 ) 
-					alternativeCost = alternativeCostFactor * Util.max( linkCosts.data);
+					alternativeCost = alternativeCostFactor * Util.max( linkCosts);
 				else	
-					alternativeCost = alternativeCostFactor * Util.percentile( linkCosts.data, percentile );
+					alternativeCost = alternativeCostFactor * Util.percentile( linkCosts, percentile );
 		
 			
 
 			scm = creator.getResult();
 			uniqueSources = creator.getSourceList();
 			uniqueTargets = creator.getTargetList();
+			sparseCosts = toLinkCosts( sources, targets, linkCosts, uniqueSources, uniqueTargets );
 		}
 
 		final long end = System.currentTimeMillis();
@@ -320,6 +354,70 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 		return true;
 	}
 
+	/**
+	 * Returns the positions in the segment start list of the starts in the
+	 * specified frames within the specified distance of a source, in
+	 * increasing order.
+	 */
+	private static int[] candidateStarts( final SpotGridIndex startIndex, final Map< Spot, Integer > startOrder, final Spot source, final int fromFrame, final int toFrame, final double maxDistance )
+	{
+		final double[] position = SpotGridIndex.positionOf( source );
+		int[] candidates = new int[ 0 ];
+		int n = 0;
+		for ( int frame = fromFrame; frame <= toFrame; frame++ )
+		{
+			final Spot[] found = startIndex.query( frame, position, maxDistance );
+			if ( n + found.length > candidates.length )
+				candidates = Arrays.copyOf( candidates, n + found.length );
+			for ( final Spot target : found )
+				candidates[ n++ ] = startOrder.get( target );
+		}
+		Arrays.sort( candidates, 0, n );
+		return n == candidates.length ? candidates : Arrays.copyOf( candidates, n );
+	}
+
+	/**
+	 * The links accepted by one chunk of sources, as indices in the source
+	 * and segment start lists, in primitive arrays owned by a single thread.
+	 */
+	private static final class LinkBuffer
+	{
+
+		private int[] sources = new int[ 16 ];
+
+		private int[] targets = new int[ 16 ];
+
+		private double[] costs = new double[ 16 ];
+
+		private int n = 0;
+
+		/**
+		 * Adds the links from a source to the candidate starts whose cost is
+		 * below the threshold, in the order of the candidates.
+		 */
+		private void addLinks( final int s, final Spot source, final int[] candidates, final List< Spot > segmentStarts, final CostFunction< Spot, Spot > costFunction, final double costThreshold )
+		{
+			for ( final int candidate : candidates )
+			{
+				// Check max distance
+				final double cost = costFunction.linkingCost( source, segmentStarts.get( candidate ) );
+				if ( cost > costThreshold )
+					continue;
+
+				if ( n == costs.length )
+				{
+					sources = Arrays.copyOf( sources, 2 * n );
+					targets = Arrays.copyOf( targets, 2 * n );
+					costs = Arrays.copyOf( costs, 2 * n );
+				}
+				sources[ n ] = s;
+				targets[ n ] = candidate;
+				costs[ n ] = cost;
+				n++;
+			}
+		}
+	}
+
 	protected CostFunction< Spot, Spot > getCostFunctionFor( final Map< String, Double > featurePenalties )
 	{
 		// Link Nick Perry original non sparse LAP framework.
@@ -335,12 +433,42 @@ public class OneatCostMatrix implements CostMatrixCreator< Spot, Spot >, MultiTh
 		return costFunction;
 	}
 
+	/**
+	 * Builds the compressed row form of the accepted links, with the row and
+	 * column order of the source and target lists of the sparse cost matrix.
+	 */
+	private static SparseLinkCosts toLinkCosts( final List< Spot > sources, final List< Spot > targets, final double[] costs, final List< Spot > uniqueSources, final List< Spot > uniqueTargets )
+	{
+		final Map< Spot, Integer > rowIndex = new HashMap< >( 2 * uniqueSources.size() );
+		for ( int i = 0; i < uniqueSources.size(); i++ )
+			rowIndex.put( uniqueSources.get( i ), i );
+		final Map< Spot, Integer > colIndex = new HashMap< >( 2 * uniqueTargets.size() );
+		for ( int j = 0; j < uniqueTargets.size(); j++ )
+			colIndex.put( uniqueTargets.get( j ), j );
+
+		final int n = sources.size();
+		final int[] rows = new int[ n ];
+		final int[] cols = new int[ n ];
+		for ( int t = 0; t < n; t++ )
+		{
+			rows[ t ] = rowIndex.get( sources.get( t ) );
+			cols[ t ] = colIndex.get( targets.get( t ) );
+		}
+		return SparseLinkCosts.fromTriplets( uniqueSources.size(), uniqueTargets.size(), rows, cols, costs, n );
+	}
+
 	@Override
 	public SparseCostMatrix getResult()
 	{
 		return scm;
 	}
 
+	@Override
+	public SparseLinkCosts getLinkCosts()
+	{
+		return sparseCosts;
+	}
+
 	@Override
 	public List< Spot > getSourceList()
 	{
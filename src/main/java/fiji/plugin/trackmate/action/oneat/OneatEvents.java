@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+/**
+ * Flight recorder events of the oneat track correction. The event classes
+ * extend <code>jdk.jfr.Event</code>, from Java 11, and are compiled apart from
+ * the plugin, that runs on Java 8. They are loaded by name when the JVM has a
+ * flight recorder, and the correction emits nothing otherwise.
+ * <p>
+ * An event is begun by one of the <code>begin</code> methods, and the object
+ * they return is passed to the matching <code>commit</code> method. The
+ * fields are set and the event committed only if it is recorded.
+ */
+abstract class OneatEvents
+{
+
+	private static final String FLIGHT_RECORDER_EVENTS = "fiji.plugin.trackmate.action.oneat.FlightRecorderEvents";
+
+	/**
+	 * The events of this JVM, that do nothing if it has no flight recorder.
+	 */
+	static final OneatEvents EVENTS = load();
+
+	/**
+	 * Begins the event of a stage of the correction.
+	 */
+	abstract Object beginStage();
+
+	abstract void commitStage( Object event, String stage );
+
+	/**
+	 * Begins the event of one task of the link creation.
+	 */
+	abstract Object beginLinkCreation();
+
+	abstract void commitLinkCreation( Object event, int trackID, int frame, int mothers, int candidates, int lapSources, int lapTargets, int linksAdded );
+
+	/**
+	 * Begins the event of the application of the corrected graph to the model.
+	 */
+	abstract Object beginModelCommit();
+
+	abstract void commitModelCommit( Object event, int edgesRemoved, int edgesAdded, int tracksAffected );
+
+	private static OneatEvents load()
+	{
+		try
+		{
+			Class.forName( "jdk.jfr.Event" );
+			return ( OneatEvents ) Class.forName( FLIGHT_RECORDER_EVENTS ).getDeclaredConstructor().newInstance();
+		}
+		catch ( final ReflectiveOperationException | LinkageError e )
+		{
+			// No flight recorder, or the classes of a Java 11 build on Java 8
+			return new NoEvents();
+		}
+	}
+
+	private static final class NoEvents extends OneatEvents
+	{
+
+		@Override
+		Object beginStage()
+		{
+			return null;
+		}
+
+		@Override
+		void commitStage( final Object event, final String stage )
+		{}
+
+		@Override
+		Object beginLinkCreation()
+		{
+			return null;
+		}
+
+		@Override
+		void commitLinkCreation( final Object event, final int trackID, final int frame, final int mothers, final int candidates, final int lapSources, final int lapTargets, final int linksAdded )
+		{}
+
+		@Override
+		Object beginModelCommit()
+		{
+			return null;
+		}
+
+		@Override
+		void commitModelCommit( final Object event, final int edgesRemoved, final int edgesAdded, final int tracksAffected )
+		{}
+	}
+}
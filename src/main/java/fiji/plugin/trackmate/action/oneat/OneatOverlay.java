@@ -25,132 +25,272 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.util.Collection;
-import java.util.HashSet;
-import org.jgrapht.graph.DefaultWeightedEdge;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.util.Arrays;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.util.TMUtils;
 import ij.ImagePlus;
+import ij.gui.Overlay;
 import ij.gui.Roi;
 
+/**
+ * The overlay of all the divisions linked by oneat on an image. It is a
+ * single Roi holding the annotations in primitive arrays, one per frame, and
+ * only draws the annotations of the current frame that are in the painted
+ * clip. Their screen coordinates are kept until the frame, the zoom or the
+ * view changes.
+ * <p>
+ * The geometry of an annotation is computed in pixel coordinates when it is
+ * added, so painting only scales, translates and draws. Annotations may be
+ * added from worker threads while the image is painted: a frame publishes its
+ * annotation count after their values, and painting does not lock.
+ */
 public class OneatOverlay extends Roi {
 	
 	private static final long serialVersionUID = 1L;
 
+	private static final Stroke STROKE = new BasicStroke( 2 );
+
+	private static final Color SHORT_AXIS_COLOR = Color.ORANGE;
+
+	private static final Color LONG_AXIS_COLOR = Color.RED;
+
+	private static final Color LINK_COLOR = Color.BLUE;
+
+	/** Half length of the drawn mother axes, in screen pixels. */
+	private static final double AXIS_LENGTH = 10;
+
+	/**
+	 * Values per annotation, in pixel coordinates: mother X and Y, unit short
+	 * axis X and Y, unit long axis X and Y, source X and Y, target X and Y.
+	 */
+	private static final int STRIDE = 10;
+
+	/**
+	 * Screen values per annotation: mother, the two ends of the short axis,
+	 * the two ends of the long axis, source and target, then the bounding box.
+	 */
+	private static final int SCREEN_STRIDE = 18;
+
 	protected final double[] calibration;
 
-	protected Collection< DefaultWeightedEdge > highlight = new HashSet<>();
+	/** The annotations of each frame. */
+	private volatile FrameAnnotations[] frames = new FrameAnnotations[ 0 ];
 
-	protected DisplaySettings displaySettings;
+	/*
+	 * Painting state, only used from the painting thread.
+	 */
 
-	protected final Spot motherspot;
-	
-	protected final Spot source;
-	
-	protected final Spot target;
-	
-	protected final double[] motherslope;
-	
-	protected final double[] largemotherslope;
+	private final Rectangle clip = new Rectangle();
+
+	private int[] screen = new int[ 0 ];
 
-	public OneatOverlay(final Spot motherspot, final Spot source, final Spot target, final double[] motherslope, final double[] largemotherslope, final ImagePlus imp) {
+	private int cachedFrame = -1;
+
+	private int cachedCount;
+
+	private double cachedMagnification;
+
+	private int cachedXCorner;
+
+	private int cachedYCorner;
+
+	public OneatOverlay( final ImagePlus imp ) {
 		super(0, 0, imp);
-		this.motherspot = motherspot;
-		this.source = source;
-		this.target = target;
-		this.motherslope = motherslope;
-		this.largemotherslope = largemotherslope;
 		this.calibration = TMUtils.getSpatialCalibration( imp );
 		this.imp = imp;
-	
 	}
+
+	/**
+	 * Returns the oneat overlay of an image, adding a new one to its overlay if
+	 * it has none yet.
+	 */
+	public static OneatOverlay forImage( final ImagePlus imp )
+	{
+		synchronized ( imp )
+		{
+			Overlay overlay = imp.getOverlay();
+			if ( overlay == null )
+			{
+				overlay = new Overlay();
+				imp.setOverlay( overlay );
+			}
+			for ( int i = 0; i < overlay.size(); i++ )
+				if ( overlay.get( i ) instanceof OneatOverlay )
+					return ( OneatOverlay ) overlay.get( i );
+
+			final OneatOverlay oneatOverlay = new OneatOverlay( imp );
+			overlay.add( oneatOverlay );
+			return oneatOverlay;
+		}
+	}
+
+	/**
+	 * Adds the annotation of a division link, shown in the frame of the mother
+	 * cell: the short and long axes of the mother and the link from source to
+	 * target.
+	 */
+	public synchronized void add( final Spot motherspot, final Spot source, final Spot target, final double[] motherslope, final double[] largemotherslope )
+	{
+		final int frame = motherspot.getFeature( Spot.FRAME ).intValue();
+		FrameAnnotations[] current = frames;
+		if ( frame >= current.length )
+		{
+			current = Arrays.copyOf( current, frame + 1 );
+			frames = current;
+		}
+		if ( current[ frame ] == null )
+			current[ frame ] = new FrameAnnotations();
+		final FrameAnnotations annotations = current[ frame ];
+
+		final int n = annotations.count;
+		double[] data = annotations.data;
+		if ( ( n + 1 ) * STRIDE > data.length )
+			data = Arrays.copyOf( data, 2 * data.length );
+
+		final int o = n * STRIDE;
+		data[ o ] = toPixel( motherspot.getFeature( Spot.POSITION_X ), calibration[ 0 ] );
+		data[ o + 1 ] = toPixel( motherspot.getFeature( Spot.POSITION_Y ), calibration[ 1 ] );
+		unitAxis( motherslope, data, o + 2 );
+		unitAxis( largemotherslope, data, o + 4 );
+		data[ o + 6 ] = toPixel( source.getFeature( Spot.POSITION_X ), calibration[ 0 ] );
+		data[ o + 7 ] = toPixel( source.getFeature( Spot.POSITION_Y ), calibration[ 1 ] );
+		data[ o + 8 ] = toPixel( target.getFeature( Spot.POSITION_X ), calibration[ 0 ] );
+		data[ o + 9 ] = toPixel( target.getFeature( Spot.POSITION_Y ), calibration[ 1 ] );
+
+		// Publish the values before the count
+		annotations.data = data;
+		annotations.count = n + 1;
+	}
+
 	@Override
-	public final synchronized void drawOverlay( final Graphics g )
+	public final void drawOverlay( final Graphics g )
 	{
-		final Graphics2D g2d = ( Graphics2D ) g;
+		final FrameAnnotations[] current = frames;
+		final int frame = imp.getFrame() - 1;
+		final FrameAnnotations annotations = frame < current.length ? current[ frame ] : null;
+		if ( annotations == null )
+			return;
+		final int count = annotations.count;
+		if ( count == 0 )
+			return;
+
 		final double magnification = getMagnification();
 
 		// Painted clip in window coordinates.
 		final int xcorner = ic.offScreenX( 0 );
 		final int ycorner = ic.offScreenY( 0 );
-		
-		drawSlope(g2d, motherspot, motherslope, largemotherslope, xcorner, ycorner, magnification); 
-		drawEdge(g2d,source,target,xcorner,ycorner,magnification );
-		
-				
+		if ( frame != cachedFrame || count != cachedCount || magnification != cachedMagnification
+				|| xcorner != cachedXCorner || ycorner != cachedYCorner )
+		{
+			computeScreenCoordinates( annotations.data, count, xcorner, ycorner, magnification );
+			cachedFrame = frame;
+			cachedCount = count;
+			cachedMagnification = magnification;
+			cachedXCorner = xcorner;
+			cachedYCorner = ycorner;
+		}
+
+		clip.setBounds( 0, 0, ic.getWidth(), ic.getHeight() );
+		g.getClipBounds( clip );
+		// Stroke width margin
+		final int clipx0 = clip.x - 2;
+		final int clipy0 = clip.y - 2;
+		final int clipx1 = clip.x + clip.width + 2;
+		final int clipy1 = clip.y + clip.height + 2;
+
+		final Graphics2D g2d = ( Graphics2D ) g;
+		g2d.setStroke( STROKE );
+		for ( int a = 0; a < count; a++ )
+		{
+			final int o = a * SCREEN_STRIDE;
+			if ( screen[ o + 14 ] > clipx1 || screen[ o + 16 ] < clipx0
+					|| screen[ o + 15 ] > clipy1 || screen[ o + 17 ] < clipy0 )
+				continue;
+
+			g2d.setColor( SHORT_AXIS_COLOR );
+			g2d.drawLine( screen[ o + 2 ], screen[ o + 3 ], screen[ o + 4 ], screen[ o + 5 ] );
+			g2d.setColor( LONG_AXIS_COLOR );
+			g2d.drawLine( screen[ o + 6 ], screen[ o + 7 ], screen[ o + 8 ], screen[ o + 9 ] );
+			g2d.setColor( LINK_COLOR );
+			g2d.drawLine( screen[ o + 10 ], screen[ o + 11 ], screen[ o + 12 ], screen[ o + 13 ] );
+		}
 	}
-	
-	protected void drawSlope(final Graphics2D g2d, final Spot motherspot, final double[] motherslope, final double[] largemotherslope, final int xcorner, final int ycorner, final double magnification) {
-		
-		double length = 10;
-		final double x0i = motherspot.getFeature( Spot.POSITION_X );
-		final double y0i = motherspot.getFeature( Spot.POSITION_Y );
-		final double x0p = x0i / calibration[ 0 ] + 0.5f;
-		final double y0p = y0i / calibration[ 1 ] + 0.5f;
-		final double x0s = ( x0p - xcorner ) * magnification;
-		final double y0s = ( y0p - ycorner ) * magnification;
-		final int x0 = ( int ) Math.round( x0s );
-		final int y0 = ( int ) Math.round( y0s );
-		
-		final double slope = motherslope[1] / motherslope[0];
-		final int x1 = (int) ( x0 - length / Math.sqrt(1 + slope * slope) ); 
-		final int y1 = (int) ( y0 -  length * slope / Math.sqrt(1 + slope * slope) );
-		g2d.setColor( Color.ORANGE );
-		
-		g2d.setStroke(new BasicStroke(2));
-		g2d.drawLine( x0, y0, x1, y1 );
-		final int x2 = (int) ( x0 +length / Math.sqrt(1 + slope * slope) ); 
-		final int y2 = (int) ( y0 +  length * slope / Math.sqrt(1 + slope * slope) );
-		g2d.setColor( Color.ORANGE );
-		g2d.drawLine( x0, y0, x2, y2 );
-		
-		
-		
-		final double largeslope = largemotherslope[1] / largemotherslope[0];
-		final int largex1 = (int) ( x0 - length / Math.sqrt(1 + largeslope * largeslope) ); 
-		final int largey1 = (int) ( y0 -  length * largeslope / Math.sqrt(1 + largeslope * largeslope) );
-		g2d.setColor( Color.RED );
-		
-		g2d.setStroke(new BasicStroke(2));
-		g2d.drawLine( x0, y0, largex1, largey1 );
-		final int largex2 = (int) ( x0 +length / Math.sqrt(1 + largeslope * largeslope) ); 
-		final int largey2 = (int) ( y0 +  length * largeslope / Math.sqrt(1 + largeslope * largeslope) );
-		g2d.setColor( Color.RED );
-		g2d.drawLine( x0, y0, largex2, largey2 );
-		
-		
-		
-		
-		
-		
+
+	/**
+	 * Computes the screen coordinates and the bounding boxes of the
+	 * annotations of a frame.
+	 */
+	private void computeScreenCoordinates( final double[] data, final int count, final int xcorner, final int ycorner, final double magnification )
+	{
+		if ( screen.length < count * SCREEN_STRIDE )
+			screen = new int[ count * SCREEN_STRIDE ];
+
+		for ( int a = 0; a < count; a++ )
+		{
+			final int i = a * STRIDE;
+			final int o = a * SCREEN_STRIDE;
+			final int x0 = ( int ) Math.round( ( data[ i ] - xcorner ) * magnification );
+			final int y0 = ( int ) Math.round( ( data[ i + 1 ] - ycorner ) * magnification );
+			screen[ o ] = x0;
+			screen[ o + 1 ] = y0;
+			for ( int axis = 0; axis < 2; axis++ )
+			{
+				final double dx = AXIS_LENGTH * data[ i + 2 + 2 * axis ];
+				final double dy = AXIS_LENGTH * data[ i + 3 + 2 * axis ];
+				final int e = o + 2 + 4 * axis;
+				screen[ e ] = ( int ) ( x0 - dx );
+				screen[ e + 1 ] = ( int ) ( y0 - dy );
+				screen[ e + 2 ] = ( int ) ( x0 + dx );
+				screen[ e + 3 ] = ( int ) ( y0 + dy );
+			}
+			for ( int k = 6; k < 10; k += 2 )
+			{
+				screen[ o + k + 4 ] = ( int ) Math.round( ( data[ i + k ] - xcorner ) * magnification );
+				screen[ o + k + 5 ] = ( int ) Math.round( ( data[ i + k + 1 ] - ycorner ) * magnification );
+			}
+
+			int minx = x0, miny = y0, maxx = x0, maxy = y0;
+			for ( int k = o + 2; k < o + 14; k += 2 )
+			{
+				minx = Math.min( minx, screen[ k ] );
+				maxx = Math.max( maxx, screen[ k ] );
+				miny = Math.min( miny, screen[ k + 1 ] );
+				maxy = Math.max( maxy, screen[ k + 1 ] );
+			}
+			screen[ o + 14 ] = minx;
+			screen[ o + 15 ] = miny;
+			screen[ o + 16 ] = maxx;
+			screen[ o + 17 ] = maxy;
+		}
 	}
-	
-	
-	protected void drawEdge( final Graphics2D g2d, final Spot source, final Spot target, final int xcorner, final int ycorner, final double magnification )
+
+	private static double toPixel( final double position, final double calibration )
 	{
-		// Find x & y in physical coordinates
-		final double x0i = source.getFeature( Spot.POSITION_X );
-		final double y0i = source.getFeature( Spot.POSITION_Y );
-		final double x1i = target.getFeature( Spot.POSITION_X );
-		final double y1i = target.getFeature( Spot.POSITION_Y );
-		// In pixel units
-		final double x0p = x0i / calibration[ 0 ] + 0.5f;
-		final double y0p = y0i / calibration[ 1 ] + 0.5f;
-		final double x1p = x1i / calibration[ 0 ] + 0.5f;
-		final double y1p = y1i / calibration[ 1 ] + 0.5f;
-		// Scale to image zoom
-		final double x0s = ( x0p - xcorner ) * magnification;
-		final double y0s = ( y0p - ycorner ) * magnification;
-		final double x1s = ( x1p - xcorner ) * magnification;
-		final double y1s = ( y1p - ycorner ) * magnification;
-		// Round
-		final int x0 = ( int ) Math.round( x0s );
-		final int y0 = ( int ) Math.round( y0s );
-		final int x1 = ( int ) Math.round( x1s );
-		final int y1 = ( int ) Math.round( y1s );
-		g2d.setStroke(new BasicStroke(2));
-		g2d.setColor( Color.BLUE );
-		g2d.drawLine( x0, y0, x1, y1 );
+		return position / calibration + 0.5;
+	}
+
+	/**
+	 * Writes the unit vector of an axis. A zero axis, for a mother cell
+	 * without ellipse, stays zero and is drawn as a point.
+	 */
+	private static void unitAxis( final double[] axis, final double[] data, final int o )
+	{
+		final double norm = Math.sqrt( axis[ 0 ] * axis[ 0 ] + axis[ 1 ] * axis[ 1 ] );
+		data[ o ] = norm == 0 ? 0 : axis[ 0 ] / norm;
+		data[ o + 1 ] = norm == 0 ? 0 : axis[ 1 ] / norm;
+	}
+
+	/**
+	 * The annotations of one frame. The values are written before the count
+	 * is increased, so that a painter reading the count first sees them.
+	 */
+	private static final class FrameAnnotations
+	{
+
+		private volatile double[] data = new double[ 4 * STRIDE ];
+
+		private volatile int count = 0;
 	}
 }
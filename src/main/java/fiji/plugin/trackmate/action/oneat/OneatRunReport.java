@@ -0,0 +1,366 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Wall time, CPU time and counters of one run of the oneat track correction,
+ * per stage of the pipeline. The stages and the link creation tasks may run
+ * concurrently and report to the same instance.
+ * <p>
+ * The CPU time of a stage is the sum over the threads that report to it. For
+ * the link creation it includes the tasks of the pool. The LAP solves are
+ * timed per task, so their wall time is a sum of busy time and may exceed the
+ * wall time of the link creation.
+ * <p>
+ * Each timed stage also emits a stage event to the flight recorder, if the
+ * JVM has one, see {@link OneatEvents}.
+ * <p>
+ * The stages running and their items done and total can be read while the
+ * correction runs, as by {@link OneatCorrectionMonitor}.
+ */
+public class OneatRunReport
+{
+
+	/**
+	 * The stages of the correction.
+	 */
+	public enum Stage
+	{
+		/** Reading the oneat csv files. */
+		PARSE( "parse" ),
+		/** Indexing the labels and the topology of the tracks. */
+		LABEL_INDEX( "labelIndex" ),
+		/** Matching the mitosis events to the tracks. */
+		MITOSIS_MATCH( "mitosisMatch" ),
+		/** Matching the apoptosis events to the tracks. */
+		APOPTOSIS_MATCH( "apoptosisMatch" ),
+		/** Breaking the links of the false divisions. */
+		BREAK_LINKS( "breakLinks" ),
+		/** Creating the links of the missed divisions. */
+		LINK_CREATION( "linkCreation" ),
+		/** The local linkers run by the link creation, cost matrix included. */
+		LAP_SOLVE( "lapSolve" ),
+		/** Applying the corrected graph to the model and updating the track features. */
+		MODEL_COMMIT( "modelCommit" );
+
+		private final String key;
+
+		private Stage( final String key )
+		{
+			this.key = key;
+		}
+
+		/**
+		 * Returns the name of the stage in the JSON report.
+		 */
+		public String getKey()
+		{
+			return key;
+		}
+	}
+
+	/**
+	 * The counters of the correction.
+	 */
+	public enum Counter
+	{
+		/** Events read from the oneat csv files. */
+		EVENTS_READ( "eventsRead" ),
+		/** Events above the probability threshold. */
+		EVENTS_KEPT( "eventsKept" ),
+		/** Mother cells matched to a mitosis event. */
+		MITOSIS_MATCHES( "mitosisMatches" ),
+		/** Tracks matched to an apoptosis event. */
+		APOPTOSIS_MATCHES( "apoptosisMatches" ),
+		/** Edges removed from the model. */
+		EDGES_REMOVED( "edgesRemoved" ),
+		/** Edges added to the model. */
+		EDGES_ADDED( "edgesAdded" ),
+		/** Local linking problems solved. */
+		LAP_PROBLEMS( "lapProblems" ),
+		/** Local linking problems the solver failed on. */
+		LAP_FAILURES( "lapFailures" ),
+		/** Sources of the local linking problems, summed. */
+		LAP_SOURCES( "lapSources" ),
+		/** Targets of the local linking problems, summed. */
+		LAP_TARGETS( "lapTargets" ),
+		/** Sources plus targets of the largest local linking problem. */
+		LAP_LARGEST( "lapLargest" );
+
+		private final String key;
+
+		private Counter( final String key )
+		{
+			this.key = key;
+		}
+
+		/**
+		 * Returns the name of the counter in the JSON report.
+		 */
+		public String getKey()
+		{
+			return key;
+		}
+	}
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final AtomicLongArray wallTimes = new AtomicLongArray( Stage.values().length );
+
+	private final AtomicLongArray cpuTimes = new AtomicLongArray( Stage.values().length );
+
+	private final AtomicLongArray calls = new AtomicLongArray( Stage.values().length );
+
+	private final AtomicLongArray counters = new AtomicLongArray( Counter.values().length );
+
+	private final AtomicLongArray running = new AtomicLongArray( Stage.values().length );
+
+	private final AtomicLongArray itemsDone = new AtomicLongArray( Stage.values().length );
+
+	private final AtomicLongArray itemsTotal = new AtomicLongArray( Stage.values().length );
+
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * Starts timing a stage on the current thread.
+	 */
+	public Timer start( final Stage stage )
+	{
+		return new Timer( stage );
+	}
+
+	/**
+	 * Runs and times a stage on the current thread.
+	 */
+	public < R > R time( final Stage stage, final Supplier< R > supplier )
+	{
+		final Timer timer = start( stage );
+		try
+		{
+			return supplier.get();
+		}
+		finally
+		{
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Adds to a counter.
+	 */
+	public void add( final Counter counter, final long value )
+	{
+		counters.addAndGet( counter.ordinal(), value );
+	}
+
+	/**
+	 * Raises a counter to the specified value if it is lower.
+	 */
+	public void max( final Counter counter, final long value )
+	{
+		long current;
+		while ( ( current = counters.get( counter.ordinal() ) ) < value )
+			if ( counters.compareAndSet( counter.ordinal(), current, value ) )
+				return;
+	}
+
+	/**
+	 * Returns the value of a counter.
+	 */
+	public long get( final Counter counter )
+	{
+		return counters.get( counter.ordinal() );
+	}
+
+	/**
+	 * Returns the wall time of a stage, in nanoseconds.
+	 */
+	public long getWallTime( final Stage stage )
+	{
+		return wallTimes.get( stage.ordinal() );
+	}
+
+	/**
+	 * Returns the CPU time of a stage, in nanoseconds, or 0 if the JVM does
+	 * not measure the CPU time of threads.
+	 */
+	public long getCpuTime( final Stage stage )
+	{
+		return cpuTimes.get( stage.ordinal() );
+	}
+
+	/**
+	 * Returns the number of times a stage was timed.
+	 */
+	public long getCalls( final Stage stage )
+	{
+		return calls.get( stage.ordinal() );
+	}
+
+	/**
+	 * Sets the number of items a stage has to process.
+	 */
+	public void setTotal( final Stage stage, final long total )
+	{
+		itemsTotal.set( stage.ordinal(), total );
+	}
+
+	/**
+	 * Adds to the number of items a stage has processed.
+	 */
+	public void advance( final Stage stage, final long items )
+	{
+		itemsDone.addAndGet( stage.ordinal(), items );
+	}
+
+	/**
+	 * Returns the number of items a stage has processed.
+	 */
+	public long getItemsDone( final Stage stage )
+	{
+		return itemsDone.get( stage.ordinal() );
+	}
+
+	/**
+	 * Returns the number of items a stage has to process, or 0 if the stage
+	 * does not count its items or did not start.
+	 */
+	public long getItemsTotal( final Stage stage )
+	{
+		return itemsTotal.get( stage.ordinal() );
+	}
+
+	/**
+	 * Returns whether a stage is being timed on at least one thread.
+	 */
+	public boolean isRunning( final Stage stage )
+	{
+		return running.get( stage.ordinal() ) > 0;
+	}
+
+	/**
+	 * Returns the time elapsed since the report was created, in nanoseconds.
+	 */
+	public long getElapsedTime()
+	{
+		return System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Returns the report as a JSON tree, times in milliseconds.
+	 */
+	public JsonObject toJsonTree()
+	{
+		final JsonObject stages = new JsonObject();
+		for ( final Stage stage : Stage.values() )
+		{
+			final JsonObject times = new JsonObject();
+			times.addProperty( "wallMs", getWallTime( stage ) / 1e6 );
+			times.addProperty( "cpuMs", getCpuTime( stage ) / 1e6 );
+			times.addProperty( "calls", getCalls( stage ) );
+			stages.add( stage.getKey(), times );
+		}
+		final JsonObject values = new JsonObject();
+		for ( final Counter counter : Counter.values() )
+			values.addProperty( counter.getKey(), get( counter ) );
+
+		final JsonObject report = new JsonObject();
+		report.add( "stages", stages );
+		report.add( "counters", values );
+		return report;
+	}
+
+	/**
+	 * Returns the report as JSON, times in milliseconds.
+	 */
+	public String toJson()
+	{
+		return new GsonBuilder().setPrettyPrinting().create().toJson( toJsonTree() );
+	}
+
+	@Override
+	public String toString()
+	{
+		return toJson();
+	}
+
+	private static long threadCpuTime()
+	{
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+	}
+
+	/**
+	 * Times a stage on the thread that started it.
+	 */
+	public class Timer
+	{
+
+		private final Stage stage;
+
+		private final long wallStart;
+
+		private final long cpuStart;
+
+		private final Object event;
+
+		private Timer( final Stage stage )
+		{
+			this.stage = stage;
+			this.wallStart = System.nanoTime();
+			this.cpuStart = threadCpuTime();
+			running.incrementAndGet( stage.ordinal() );
+			event = OneatEvents.EVENTS.beginStage();
+		}
+
+		/**
+		 * Adds the wall and CPU time since the start to the stage.
+		 */
+		public void stop()
+		{
+			wallTimes.addAndGet( stage.ordinal(), System.nanoTime() - wallStart );
+			calls.incrementAndGet( stage.ordinal() );
+			stopCpu();
+			OneatEvents.EVENTS.commitStage( event, stage.getKey() );
+		}
+
+		/**
+		 * Adds only the CPU time since the start to the stage, for the work
+		 * of a task within a stage timed by another thread. No event is
+		 * emitted.
+		 */
+		public void stopCpu()
+		{
+			running.decrementAndGet( stage.ordinal() );
+			final long cpuEnd = threadCpuTime();
+			if ( cpuStart >= 0 && cpuEnd >= 0 )
+				cpuTimes.addAndGet( stage.ordinal(), cpuEnd - cpuStart );
+		}
+	}
+}
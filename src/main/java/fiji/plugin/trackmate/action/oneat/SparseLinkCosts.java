@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.Arrays;
+
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
+
+/**
+ * The linking costs of a cost matrix in compressed row form, readable outside
+ * of the TrackMate cost matrix package. Row <code>i</code> holds the columns
+ * <code>kk[ start[ i ] ]</code> to <code>kk[ start[ i + 1 ] - 1 ]</code>, in
+ * increasing order, with their costs in <code>cc</code>.
+ */
+public class SparseLinkCosts
+{
+
+	/**
+	 * Interface for cost matrix creators that can give their costs in
+	 * compressed row form, so that they do not have to be read back from the
+	 * {@link SparseCostMatrix}.
+	 */
+	public interface Provider
+	{
+		/**
+		 * Returns the costs of the last matrix created, with the rows and
+		 * columns in the order of the source and target lists.
+		 */
+		public SparseLinkCosts getLinkCosts();
+	}
+
+	final int nRows;
+
+	final int nCols;
+
+	final int[] start;
+
+	final int[] kk;
+
+	final double[] cc;
+
+	public SparseLinkCosts( final int nRows, final int nCols, final int[] start, final int[] kk, final double[] cc )
+	{
+		this.nRows = nRows;
+		this.nCols = nCols;
+		this.start = start;
+		this.kk = kk;
+		this.cc = cc;
+	}
+
+	/**
+	 * Creates the compressed row form of costs given as a list of (row,
+	 * column, cost) triplets, in any order and without duplicates.
+	 */
+	public static SparseLinkCosts fromTriplets( final int nRows, final int nCols, final int[] rows, final int[] cols, final double[] costs, final int n )
+	{
+		final int[] start = new int[ nRows + 1 ];
+		for ( int t = 0; t < n; t++ )
+			start[ rows[ t ] + 1 ]++;
+		for ( int i = 0; i < nRows; i++ )
+			start[ i + 1 ] += start[ i ];
+
+		final int[] fill = Arrays.copyOf( start, nRows );
+		final int[] kk = new int[ n ];
+		final double[] cc = new double[ n ];
+		for ( int t = 0; t < n; t++ )
+		{
+			final int k = fill[ rows[ t ] ]++;
+			kk[ k ] = cols[ t ];
+			cc[ k ] = costs[ t ];
+		}
+
+		// Sort the columns of each row, rows are short
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = start[ i ] + 1; k < start[ i + 1 ]; k++ )
+			{
+				final int col = kk[ k ];
+				final double cost = cc[ k ];
+				int l = k - 1;
+				while ( l >= start[ i ] && kk[ l ] > col )
+				{
+					kk[ l + 1 ] = kk[ l ];
+					cc[ l + 1 ] = cc[ l ];
+					l--;
+				}
+				kk[ l + 1 ] = col;
+				cc[ l + 1 ] = cost;
+			}
+		}
+		return new SparseLinkCosts( nRows, nCols, start, kk, cc );
+	}
+
+	/**
+	 * Reads the costs of a {@link SparseCostMatrix} back, probing every row
+	 * and column. Meant for cost matrix creators that are not a
+	 * {@link Provider}.
+	 */
+	public static SparseLinkCosts fromMatrix( final SparseCostMatrix scm )
+	{
+		final int nRows = scm.getNRows();
+		final int nCols = scm.getNCols();
+		final int[] start = new int[ nRows + 1 ];
+		int[] kk = new int[ Math.max( 16, nRows ) ];
+		double[] cc = new double[ kk.length ];
+		int n = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int j = 0; j < nCols; j++ )
+			{
+				final double cost = scm.get( i, j, Double.NaN );
+				if ( Double.isNaN( cost ) )
+					continue;
+				if ( n == kk.length )
+				{
+					kk = Arrays.copyOf( kk, 2 * n );
+					cc = Arrays.copyOf( cc, 2 * n );
+				}
+				kk[ n ] = j;
+				cc[ n ] = cost;
+				n++;
+			}
+			start[ i + 1 ] = n;
+		}
+		return new SparseLinkCosts( nRows, nCols, start, Arrays.copyOf( kk, n ), Arrays.copyOf( cc, n ) );
+	}
+
+	public int getNRows()
+	{
+		return nRows;
+	}
+
+	public int getNCols()
+	{
+		return nCols;
+	}
+
+	/**
+	 * Returns the cost of linking row <code>i</code> to column <code>j</code>,
+	 * or the specified value if they cannot be linked.
+	 */
+	public double get( final int i, final int j, final double missingValue )
+	{
+		final int k = Arrays.binarySearch( kk, start[ i ], start[ i + 1 ], j );
+		return k < 0 ? missingValue : cc[ k ];
+	}
+
+	/**
+	 * Labels the rows and columns with the index of their connected component,
+	 * two of them being connected when there is a cost between them.
+	 * Components are numbered from 0 in the order of their first row, and
+	 * the columns that cannot be linked to any row come last, one per
+	 * component.
+	 *
+	 * @param rowComponent
+	 *            receives the component of each row.
+	 * @param colComponent
+	 *            receives the component of each column.
+	 * @return the number of components.
+	 */
+	public int connectedComponents( final int[] rowComponent, final int[] colComponent )
+	{
+		// Union-find over the rows then the columns
+		final int[] parent = new int[ nRows + nCols ];
+		for ( int u = 0; u < parent.length; u++ )
+			parent[ u ] = u;
+		for ( int i = 0; i < nRows; i++ )
+			for ( int k = start[ i ]; k < start[ i + 1 ]; k++ )
+			{
+				final int ri = find( parent, i );
+				final int rj = find( parent, nRows + kk[ k ] );
+				if ( ri != rj )
+					parent[ Math.max( ri, rj ) ] = Math.min( ri, rj );
+			}
+
+		// The root of a component is its smallest node, a row if it has one
+		final int[] label = new int[ parent.length ];
+		int nComponents = 0;
+		for ( int u = 0; u < parent.length; u++ )
+		{
+			final int root = find( parent, u );
+			label[ u ] = root == u ? nComponents++ : label[ root ];
+		}
+		System.arraycopy( label, 0, rowComponent, 0, nRows );
+		System.arraycopy( label, nRows, colComponent, 0, nCols );
+		return nComponents;
+	}
+
+	private static int find( final int[] parent, int u )
+	{
+		while ( parent[ u ] != u )
+		{
+			parent[ u ] = parent[ parent[ u ] ];
+			u = parent[ u ];
+		}
+		return u;
+	}
+
+	/**
+	 * Returns the costs between the specified rows and columns, renumbered in
+	 * the order they are given.
+	 *
+	 * @param rows
+	 *            the rows to keep, in increasing order.
+	 * @param cols
+	 *            the columns to keep, in increasing order. All the columns
+	 *            the kept rows can be linked to must be in.
+	 * @return a new sparse cost matrix.
+	 */
+	public SparseLinkCosts subMatrix( final int[] rows, final int[] cols )
+	{
+		final int[] subStart = new int[ rows.length + 1 ];
+		for ( int r = 0; r < rows.length; r++ )
+			subStart[ r + 1 ] = subStart[ r ] + start[ rows[ r ] + 1 ] - start[ rows[ r ] ];
+
+		final int n = subStart[ rows.length ];
+		final int[] subKk = new int[ n ];
+		final double[] subCc = new double[ n ];
+		for ( int r = 0; r < rows.length; r++ )
+		{
+			final int i = rows[ r ];
+			int l = subStart[ r ];
+			for ( int k = start[ i ]; k < start[ i + 1 ]; k++ )
+			{
+				// Both increasing, the local column index keeps the order
+				subKk[ l ] = Arrays.binarySearch( cols, kk[ k ] );
+				subCc[ l ] = cc[ k ];
+				l++;
+			}
+		}
+		return new SparseLinkCosts( rows.length, cols.length, subStart, subKk, subCc );
+	}
+
+	/**
+	 * Returns the block cost matrix of Jaqaman <i>et al.</i>, Nature Methods,
+	 * <b>2008</b>, Figure 1b, for these linking costs: the links top left, the
+	 * alternative costs of the rows top right and of the columns bottom left
+	 * on the diagonal, and the specified cost bottom right wherever there is a
+	 * link top left, transposed.
+	 *
+	 * @param rowAlternativeCosts
+	 *            the cost of not linking each row.
+	 * @param colAlternativeCosts
+	 *            the cost of not linking each column.
+	 * @param alternativeAlternativeCost
+	 *            the cost of the bottom right block.
+	 * @return a new square matrix of <code>nRows + nCols</code> rows.
+	 */
+	public SparseCostMatrix toBlockMatrix( final double[] rowAlternativeCosts, final double[] colAlternativeCosts, final double alternativeAlternativeCost )
+	{
+		final int nLinks = start[ nRows ];
+		final int n = nRows + nCols;
+		final int[] number = new int[ n ];
+		final int[] blockKk = new int[ 2 * nLinks + n ];
+		final double[] blockCc = new double[ blockKk.length ];
+		int l = 0;
+
+		// Links then the alternative of the row, in increasing column order
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = start[ i ]; k < start[ i + 1 ]; k++ )
+			{
+				blockKk[ l ] = kk[ k ];
+				blockCc[ l ] = cc[ k ];
+				l++;
+			}
+			blockKk[ l ] = nCols + i;
+			blockCc[ l ] = rowAlternativeCosts[ i ];
+			l++;
+			number[ i ] = start[ i + 1 ] - start[ i ] + 1;
+		}
+
+		// The alternative of the column, then the transposed links
+		final int[][] colRows = new int[ nCols ][];
+		final int[] colCount = new int[ nCols ];
+		for ( int k = 0; k < nLinks; k++ )
+			colCount[ kk[ k ] ]++;
+		for ( int j = 0; j < nCols; j++ )
+			colRows[ j ] = new int[ colCount[ j ] ];
+		Arrays.fill( colCount, 0 );
+		for ( int i = 0; i < nRows; i++ )
+			for ( int k = start[ i ]; k < start[ i + 1 ]; k++ )
+				colRows[ kk[ k ] ][ colCount[ kk[ k ] ]++ ] = i;
+		for ( int j = 0; j < nCols; j++ )
+		{
+			blockKk[ l ] = j;
+			blockCc[ l ] = colAlternativeCosts[ j ];
+			l++;
+			for ( final int i : colRows[ j ] )
+			{
+				blockKk[ l ] = nCols + i;
+				blockCc[ l ] = alternativeAlternativeCost;
+				l++;
+			}
+			number[ nRows + j ] = colRows[ j ].length + 1;
+		}
+		return new SparseCostMatrix( blockCc, blockKk, number, n );
+	}
+}
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Per-track index of the split spots found by TrackMate, sorted by frame, to
+ * answer "is there a split close in time to this event" with a binary search
+ * instead of a scan of all the splits of the track.
+ */
+public class SplitFrameIndex {
+
+	private static final int[] NO_FRAMES = new int[0];
+
+	private static final Spot[] NO_SPOTS = new Spot[0];
+
+	private final HashMap<Integer, int[]> trackframes;
+
+	private final HashMap<Integer, Spot[]> trackspots;
+
+	/**
+	 * 
+	 * @param Dividingspots HashMap of TrackID and the list of dividing spots in
+	 *                      that track
+	 */
+	public SplitFrameIndex(final Map<Integer, ArrayList<Spot>> Dividingspots) {
+
+		trackframes = new HashMap<Integer, int[]>(2 * Dividingspots.size());
+		trackspots = new HashMap<Integer, Spot[]>(2 * Dividingspots.size());
+
+		for (Map.Entry<Integer, ArrayList<Spot>> trackidspots : Dividingspots.entrySet()) {
+
+			ArrayList<Spot> splits = trackidspots.getValue();
+			if (splits == null || splits.isEmpty())
+				continue;
+
+			Spot[] spots = splits.toArray(new Spot[splits.size()]);
+			Arrays.sort(spots, new Comparator<Spot>() {
+				@Override
+				public int compare(Spot a, Spot b) {
+					return Integer.compare(frameOf(a), frameOf(b));
+				}
+			});
+			int[] frames = new int[spots.length];
+			for (int i = 0; i < spots.length; ++i)
+				frames[i] = frameOf(spots[i]);
+
+			trackframes.put(trackidspots.getKey(), frames);
+			trackspots.put(trackidspots.getKey(), spots);
+		}
+	}
+
+	/**
+	 * Returns true if the track has a split strictly less than N frames away
+	 * from the specified frame.
+	 * 
+	 * @param trackID The track to query
+	 * @param frame   The frame of the event
+	 * @param N       The half width of the window, exclusive
+	 * @return true if a split lies in the open window (frame - N, frame + N)
+	 */
+	public boolean hasSplitWithin(final int trackID, final int frame, final int N) {
+
+		final int[] frames = framesOf(trackID);
+		final int first = lowerBound(frames, frame - N + 1);
+		return first < frames.length && frames[first] <= frame + N - 1;
+	}
+
+	/**
+	 * Returns the split of the track closest in time to the specified frame,
+	 * the earliest one on ties.
+	 * 
+	 * @param trackID The track to query
+	 * @param frame   The frame of the event
+	 * @return the closest split, or {@code null} if the track has no split
+	 */
+	public Spot closestSplit(final int trackID, final int frame) {
+
+		final int[] frames = framesOf(trackID);
+		if (frames.length == 0)
+			return null;
+
+		final Spot[] spots = trackspots.get(trackID);
+		final int after = lowerBound(frames, frame);
+		if (after == 0)
+			return spots[0];
+		if (after == frames.length)
+			return spots[frames.length - 1];
+
+		// The last split of the previous frame, if at the same distance it wins
+		final int before = lowerBound(frames, frames[after - 1]);
+		return frame - frames[after - 1] <= frames[after] - frame ? spots[before] : spots[after];
+	}
+
+	/**
+	 * @param trackID The track to query
+	 * @return the frames of the splits of the track, sorted
+	 */
+	public int[] framesOf(final int trackID) {
+
+		final int[] frames = trackframes.get(trackID);
+		return frames == null ? NO_FRAMES : frames;
+	}
+
+	/**
+	 * @param trackID The track to query
+	 * @return the split spots of the track, sorted by frame
+	 */
+	public Spot[] spotsOf(final int trackID) {
+
+		final Spot[] spots = trackspots.get(trackID);
+		return spots == null ? NO_SPOTS : spots;
+	}
+
+	/**
+	 * Index of the first element greater or equal to the key.
+	 */
+	private static int lowerBound(final int[] frames, final int key) {
+
+		int low = 0;
+		int high = frames.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (frames[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static int frameOf(final Spot spot) {
+
+		return spot.getFeature(Spot.FRAME).intValue();
+	}
+
+}
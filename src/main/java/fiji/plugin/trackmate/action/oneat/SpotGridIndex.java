@@ -0,0 +1,370 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+/**
+ * A uniform grid over the spot positions of each frame, to answer radius
+ * queries without iterating over all the spots of a frame.
+ * <p>
+ * The grid is built once and is read-only afterwards, so that it can be
+ * shared between threads. The cell size is the search radius the index is
+ * built for, a query with that radius visits at most 3 cells per dimension.
+ */
+public class SpotGridIndex {
+
+	private static final Spot[] NO_SPOTS = new Spot[0];
+
+	private final double cellsize;
+
+	private final HashMap<Integer, FrameGrid> grids;
+
+	/**
+	 * Per-thread buffer of the indices accepted by a query.
+	 */
+	private final ThreadLocal<int[][]> scratch = ThreadLocal.withInitial(() -> new int[1][64]);
+
+	/**
+	 * 
+	 * @param allspots The spots to index, all frames, visible or not
+	 * @param radius   The typical search radius, used as cell size
+	 */
+	public SpotGridIndex(final SpotCollection allspots, final double radius) {
+
+		this.cellsize = radius > 0 ? radius : 1;
+		this.grids = new HashMap<Integer, FrameGrid>();
+
+		for (final Integer frame : allspots.keySet()) {
+
+			final int nspots = allspots.getNSpots(frame, false);
+			if (nspots == 0)
+				continue;
+			final ArrayList<Spot> spots = new ArrayList<Spot>(nspots);
+			for (final Spot spot : allspots.iterable(frame, false))
+				spots.add(spot);
+			grids.put(frame, new FrameGrid(spots, cellsize));
+		}
+	}
+
+	/**
+	 * 
+	 * @param spots  The spots to index, grouped by their frame feature
+	 * @param radius The typical search radius, used as cell size
+	 */
+	public SpotGridIndex(final Collection<Spot> spots, final double radius) {
+
+		this.cellsize = radius > 0 ? radius : 1;
+		this.grids = new HashMap<Integer, FrameGrid>();
+
+		final HashMap<Integer, ArrayList<Spot>> framespots = new HashMap<Integer, ArrayList<Spot>>();
+		for (final Spot spot : spots)
+			framespots.computeIfAbsent(spot.getFeature(Spot.FRAME).intValue(), f -> new ArrayList<Spot>()).add(spot);
+		for (final Map.Entry<Integer, ArrayList<Spot>> entry : framespots.entrySet())
+			grids.put(entry.getKey(), new FrameGrid(entry.getValue(), cellsize));
+	}
+
+	/**
+	 * Returns the spots of a frame within the specified distance of a position.
+	 * 
+	 * @param frame    The frame to search
+	 * @param position The physical x, y, z of the center of the search
+	 * @param radius   The search radius, inclusive
+	 * @return The spots found, in no particular order
+	 */
+	public Spot[] query(final int frame, final double[] position, final double radius) {
+
+		return query(frame, position, radius, null, -1);
+	}
+
+	/**
+	 * Returns the spots of a frame within the specified distance of a spot.
+	 */
+	public Spot[] query(final int frame, final Spot center, final double radius) {
+
+		return query(frame, positionOf(center), radius, null, -1);
+	}
+
+	/**
+	 * Returns the spots of a frame within the specified distance of a position
+	 * whose direction from the position makes an angle with the axis whose
+	 * cosine is at least the specified one, in absolute value. This is the
+	 * Mari principle test, the axis being the one the daughters are expected
+	 * along.
+	 * <p>
+	 * An axis with 2 components is tested in the XY plane only, an axis with 3
+	 * components in 3D. Spots at the position itself have no direction and are
+	 * rejected, and so are all the spots if the axis has zero length.
+	 * 
+	 * @param frame    The frame to search
+	 * @param position The physical x, y, z of the center of the search
+	 * @param radius   The search radius, inclusive
+	 * @param axis     The axis to test against, or {@code null} to only test
+	 *                 the distance
+	 * @param cosangle The cosine of the maximal angle to the axis
+	 * @return The spots found, in no particular order
+	 */
+	public Spot[] query(final int frame, final double[] position, final double radius, final double[] axis,
+			final double cosangle) {
+
+		final FrameGrid grid = grids.get(frame);
+		if (grid == null)
+			return NO_SPOTS;
+		return grid.query(position, radius, axis, cosangle, scratch.get());
+	}
+
+	/**
+	 * Returns the number of spots the grid cells around a position hold, an
+	 * upper bound of the size of a query with the same radius.
+	 */
+	public int estimate(final int frame, final double[] position, final double radius) {
+
+		final FrameGrid grid = grids.get(frame);
+		if (grid == null)
+			return 0;
+		return grid.estimate(position, radius);
+	}
+
+	static double[] positionOf(final Spot spot) {
+
+		return new double[] { spot.getDoublePosition(0), spot.getDoublePosition(1), spot.getDoublePosition(2) };
+	}
+
+	/**
+	 * The spots of one frame, sorted by grid cell, with their coordinates in
+	 * primitive arrays.
+	 */
+	static final class FrameGrid {
+
+		private final double cellsize;
+
+		/*
+		 * Grid origin and extent, in cells.
+		 */
+		private final long minx, miny, minz;
+
+		private final long nx, ny, maxz;
+
+		/*
+		 * Sorted unique cell keys, and where the spots of each cell start in the
+		 * spot arrays. cellstart has one more element closing the last cell.
+		 */
+		private final long[] cellkeys;
+
+		private final int[] cellstart;
+
+		final Spot[] spots;
+
+		final double[] x, y, z;
+
+		FrameGrid(final ArrayList<Spot> framespots, final double cellsize) {
+
+			this.cellsize = cellsize;
+			final int n = framespots.size();
+
+			final long[] cx = new long[n], cy = new long[n], cz = new long[n];
+			long mx = Long.MAX_VALUE, my = Long.MAX_VALUE, mz = Long.MAX_VALUE;
+			long Mx = Long.MIN_VALUE, My = Long.MIN_VALUE, Mz = Long.MIN_VALUE;
+			for (int i = 0; i < n; ++i) {
+
+				final Spot spot = framespots.get(i);
+				cx[i] = cell(spot.getDoublePosition(0));
+				cy[i] = cell(spot.getDoublePosition(1));
+				cz[i] = cell(spot.getDoublePosition(2));
+				mx = Math.min(mx, cx[i]);
+				my = Math.min(my, cy[i]);
+				mz = Math.min(mz, cz[i]);
+				Mx = Math.max(Mx, cx[i]);
+				My = Math.max(My, cy[i]);
+				Mz = Math.max(Mz, cz[i]);
+			}
+			this.minx = mx;
+			this.miny = my;
+			this.minz = mz;
+			this.nx = Mx - mx + 1;
+			this.ny = My - my + 1;
+			this.maxz = Mz;
+
+			// Sort the spots by cell key
+			final long[] keys = new long[n];
+			final Integer[] order = new Integer[n];
+			for (int i = 0; i < n; ++i) {
+				keys[i] = key(cx[i], cy[i], cz[i]);
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+			this.spots = new Spot[n];
+			this.x = new double[n];
+			this.y = new double[n];
+			this.z = new double[n];
+			final long[] uniquekeys = new long[n];
+			final int[] starts = new int[n + 1];
+			int ncells = 0;
+			for (int i = 0; i < n; ++i) {
+
+				final int o = order[i];
+				final Spot spot = framespots.get(o);
+				spots[i] = spot;
+				x[i] = spot.getDoublePosition(0);
+				y[i] = spot.getDoublePosition(1);
+				z[i] = spot.getDoublePosition(2);
+				if (ncells == 0 || uniquekeys[ncells - 1] != keys[o]) {
+					uniquekeys[ncells] = keys[o];
+					starts[ncells] = i;
+					ncells++;
+				}
+			}
+			starts[ncells] = n;
+			this.cellkeys = Arrays.copyOf(uniquekeys, ncells);
+			this.cellstart = Arrays.copyOf(starts, ncells + 1);
+		}
+
+		Spot[] query(final double[] position, final double radius, final double[] axis, final double cosangle,
+				final int[][] scratch) {
+
+			final double r2 = radius * radius;
+			final boolean cone = axis != null;
+			final double ax = cone ? axis[0] : 0;
+			final double ay = cone ? axis[1] : 0;
+			final double az = cone && axis.length > 2 ? axis[2] : 0;
+			final double wz = cone && axis.length > 2 ? 1 : 0;
+			final double a2 = ax * ax + ay * ay + az * az;
+			if (cone && !(a2 > 0))
+				return NO_SPOTS;
+			// cos^2 scaled by the axis norm, an angle over 90 degrees keeps all
+			final double c2 = cosangle > 0 ? cosangle * cosangle * a2 : 0;
+
+			final long x0 = Math.max(cell(position[0] - radius), minx);
+			final long x1 = Math.min(cell(position[0] + radius), minx + nx - 1);
+			final long y0 = Math.max(cell(position[1] - radius), miny);
+			final long y1 = Math.min(cell(position[1] + radius), miny + ny - 1);
+			final long z0 = Math.max(cell(position[2] - radius), minz);
+			final long z1 = Math.min(cell(position[2] + radius), maxz);
+
+			int nfound = 0;
+			for (long cz = z0; cz <= z1; ++cz)
+				for (long cy = y0; cy <= y1; ++cy)
+					for (long cx = x0; cx <= x1; ++cx) {
+
+						final int c = Arrays.binarySearch(cellkeys, key(cx, cy, cz));
+						if (c < 0)
+							continue;
+						final int start = cellstart[c];
+						final int end = cellstart[c + 1];
+						if (scratch[0].length < nfound + end - start)
+							scratch[0] = Arrays.copyOf(scratch[0], 2 * (nfound + end - start));
+						if (cone)
+							nfound = filterCone(x, y, z, start, end, position[0], position[1], position[2], r2, ax,
+									ay, az, wz, c2, scratch[0], nfound);
+						else
+							nfound = filterDistance(x, y, z, start, end, position[0], position[1], position[2], r2,
+									scratch[0], nfound);
+					}
+
+			if (nfound == 0)
+				return NO_SPOTS;
+			final Spot[] found = new Spot[nfound];
+			final int[] accepted = scratch[0];
+			for (int k = 0; k < nfound; ++k)
+				found[k] = spots[accepted[k]];
+			return found;
+		}
+
+		/**
+		 * Appends to out the indices in [start, end) within sqrt(r2) of the
+		 * center.
+		 */
+		private static int filterDistance(final double[] x, final double[] y, final double[] z, final int start,
+				final int end, final double px, final double py, final double pz, final double r2, final int[] out,
+				int nout) {
+
+			for (int i = start; i < end; ++i) {
+				final double dx = x[i] - px;
+				final double dy = y[i] - py;
+				final double dz = z[i] - pz;
+				out[nout] = i;
+				nout += dx * dx + dy * dy + dz * dz <= r2 ? 1 : 0;
+			}
+			return nout;
+		}
+
+		/**
+		 * Appends to out the indices in [start, end) within sqrt(r2) of the
+		 * center whose direction d from the center satisfies (a.d)^2 &gt;= c2
+		 * |d|^2, with the z component of d weighted by wz.
+		 */
+		private static int filterCone(final double[] x, final double[] y, final double[] z, final int start,
+				final int end, final double px, final double py, final double pz, final double r2, final double ax,
+				final double ay, final double az, final double wz, final double c2, final int[] out, int nout) {
+
+			for (int i = start; i < end; ++i) {
+				final double dx = x[i] - px;
+				final double dy = y[i] - py;
+				final double dz = z[i] - pz;
+				final double d2 = dx * dx + dy * dy + dz * dz;
+				final double dcone2 = dx * dx + dy * dy + wz * dz * dz;
+				final double dot = ax * dx + ay * dy + az * dz;
+				out[nout] = i;
+				nout += d2 <= r2 & dcone2 > 0 & dot * dot >= c2 * dcone2 ? 1 : 0;
+			}
+			return nout;
+		}
+
+		int estimate(final double[] position, final double radius) {
+
+			int count = 0;
+			final long x0 = Math.max(cell(position[0] - radius), minx);
+			final long x1 = Math.min(cell(position[0] + radius), minx + nx - 1);
+			final long y0 = Math.max(cell(position[1] - radius), miny);
+			final long y1 = Math.min(cell(position[1] + radius), miny + ny - 1);
+			final long z0 = Math.max(cell(position[2] - radius), minz);
+			final long z1 = Math.min(cell(position[2] + radius), maxz);
+			for (long cz = z0; cz <= z1; ++cz)
+				for (long cy = y0; cy <= y1; ++cy)
+					for (long cx = x0; cx <= x1; ++cx) {
+						final int c = Arrays.binarySearch(cellkeys, key(cx, cy, cz));
+						if (c >= 0)
+							count += cellstart[c + 1] - cellstart[c];
+					}
+			return count;
+		}
+
+		private long cell(final double coordinate) {
+
+			return (long) Math.floor(coordinate / cellsize);
+		}
+
+		private long key(final long cx, final long cy, final long cz) {
+
+			return ((cz - minz) * ny + (cy - miny)) * nx + (cx - minx);
+		}
+	}
+
+}
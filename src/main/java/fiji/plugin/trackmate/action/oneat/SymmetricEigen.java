@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+/**
+ * Eigen decomposition of the small symmetric matrices of the ellipsoid fits,
+ * written into arrays given by the caller. 2x2 matrices are solved in closed
+ * form without allocating, larger ones with cyclic Jacobi rotations on a copy
+ * of the matrix.
+ * <p>
+ * Eigenvalues are sorted in increasing order, as by Jama for symmetric
+ * matrices, and <code>vectors[ k ]</code> is the unit eigenvector of
+ * <code>values[ k ]</code>.
+ */
+final class SymmetricEigen
+{
+
+	private static final int MAX_SWEEPS = 50;
+
+	private SymmetricEigen()
+	{}
+
+	/**
+	 * Decomposes a symmetric matrix.
+	 *
+	 * @param m
+	 *            the matrix, only its upper triangle is read.
+	 * @param values
+	 *            receives the eigenvalues, in increasing order.
+	 * @param vectors
+	 *            receives the eigenvectors, one per row. May be
+	 *            <code>null</code> if only the eigenvalues are needed.
+	 */
+	static void decompose( final double[][] m, final double[] values, final double[][] vectors )
+	{
+		if ( m.length == 2 )
+			decompose2( m[ 0 ][ 0 ], m[ 0 ][ 1 ], m[ 1 ][ 1 ], values, vectors );
+		else
+			jacobi( m, values, vectors );
+	}
+
+	/**
+	 * Decomposes the 2x2 symmetric matrix <code>[ a, b; b, c ]</code>.
+	 */
+	static void decompose2( final double a, final double b, final double c, final double[] values, final double[][] vectors )
+	{
+		final double mean = 0.5 * ( a + c );
+		final double radius = Math.hypot( 0.5 * ( a - c ), b );
+		values[ 0 ] = mean - radius;
+		values[ 1 ] = mean + radius;
+		if ( vectors == null )
+			return;
+
+		// Angle of the eigenvector of the largest eigenvalue
+		final double theta = 0.5 * Math.atan2( 2 * b, a - c );
+		final double cos = Math.cos( theta );
+		final double sin = Math.sin( theta );
+		vectors[ 0 ][ 0 ] = -sin;
+		vectors[ 0 ][ 1 ] = cos;
+		vectors[ 1 ][ 0 ] = cos;
+		vectors[ 1 ][ 1 ] = sin;
+	}
+
+	/**
+	 * Cyclic Jacobi eigenvalue algorithm. The copy of the matrix converges to
+	 * the diagonal of the eigenvalues.
+	 */
+	private static void jacobi( final double[][] m, final double[] values, final double[][] vectors )
+	{
+		final int n = m.length;
+		final double[][] a = new double[ n ][];
+		for ( int i = 0; i < n; i++ )
+			a[ i ] = m[ i ].clone();
+		if ( vectors != null )
+			for ( int i = 0; i < n; i++ )
+				for ( int j = 0; j < n; j++ )
+					vectors[ i ][ j ] = i == j ? 1 : 0;
+
+		for ( int sweep = 0; sweep < MAX_SWEEPS; sweep++ )
+		{
+			double off = 0;
+			double diagonal = 0;
+			for ( int p = 0; p < n; p++ )
+			{
+				diagonal += a[ p ][ p ] * a[ p ][ p ];
+				for ( int q = p + 1; q < n; q++ )
+					off += a[ p ][ q ] * a[ p ][ q ];
+			}
+			if ( off <= 1e-30 * diagonal || off == 0 )
+				break;
+
+			for ( int p = 0; p < n; p++ )
+			{
+				for ( int q = p + 1; q < n; q++ )
+				{
+					final double apq = a[ p ][ q ];
+					if ( apq == 0 )
+						continue;
+
+					// Rotation zeroing a[ p ][ q ]
+					final double tau = ( a[ q ][ q ] - a[ p ][ p ] ) / ( 2 * apq );
+					final double t = Math.signum( tau ) / ( Math.abs( tau ) + Math.sqrt( 1 + tau * tau ) );
+					final double tan = tau == 0 ? 1 : t;
+					final double cos = 1 / Math.sqrt( 1 + tan * tan );
+					final double sin = tan * cos;
+
+					a[ p ][ p ] -= tan * apq;
+					a[ q ][ q ] += tan * apq;
+					a[ p ][ q ] = 0;
+					for ( int k = 0; k < n; k++ )
+					{
+						if ( k == p || k == q )
+							continue;
+						// Upper triangle only
+						final double akp = k < p ? a[ k ][ p ] : a[ p ][ k ];
+						final double akq = k < q ? a[ k ][ q ] : a[ q ][ k ];
+						final double nkp = cos * akp - sin * akq;
+						final double nkq = sin * akp + cos * akq;
+						if ( k < p )
+							a[ k ][ p ] = nkp;
+						else
+							a[ p ][ k ] = nkp;
+						if ( k < q )
+							a[ k ][ q ] = nkq;
+						else
+							a[ q ][ k ] = nkq;
+					}
+					if ( vectors != null )
+					{
+						final double[] vp = vectors[ p ];
+						final double[] vq = vectors[ q ];
+						for ( int k = 0; k < n; k++ )
+						{
+							final double x = vp[ k ];
+							final double y = vq[ k ];
+							vp[ k ] = cos * x - sin * y;
+							vq[ k ] = sin * x + cos * y;
+						}
+					}
+				}
+			}
+		}
+
+		// Insertion sort on the eigenvalues, rows of the vectors follow
+		for ( int i = 0; i < n; i++ )
+			values[ i ] = a[ i ][ i ];
+		for ( int i = 1; i < n; i++ )
+		{
+			final double value = values[ i ];
+			final double[] vector = vectors == null ? null : vectors[ i ];
+			int j = i - 1;
+			while ( j >= 0 && values[ j ] > value )
+			{
+				values[ j + 1 ] = values[ j ];
+				if ( vectors != null )
+					vectors[ j + 1 ] = vectors[ j ];
+				j--;
+			}
+			values[ j + 1 ] = value;
+			if ( vectors != null )
+				vectors[ j + 1 ] = vector;
+		}
+	}
+}
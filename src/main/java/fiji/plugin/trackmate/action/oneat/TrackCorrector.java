@@ -21,6 +21,8 @@
  */
 package fiji.plugin.trackmate.action.oneat;
 
+import java.util.Set;
+
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
@@ -42,5 +44,14 @@ public interface TrackCorrector extends OutputAlgorithm< SimpleWeightedGraph< Sp
 	public void setLogger( final Logger logger );
 	
 	public long getProcessingTime();
+
+	/**
+	 * Returns the IDs of the tracks whose topology was changed by the last
+	 * correction, as found in the model after the correction was applied.
+	 *
+	 * @return the affected track IDs, or {@code null} if the correction did
+	 *         not run yet.
+	 */
+	public Set< Integer > getAffectedTrackIDs();
 	
 }
@@ -26,6 +26,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -33,12 +35,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.DecompositionSolver;
@@ -47,20 +53,17 @@ import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.linear.SingularValueDecomposition;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
-import org.jgrapht.traverse.BreadthFirstIterator;
 
-import Jama.EigenvalueDecomposition;
-import Jama.Matrix;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.action.oneat.OneatRunReport.Counter;
+import fiji.plugin.trackmate.action.oneat.OneatRunReport.Stage;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.graph.SortedDepthFirstIterator;
-import ij.IJ;
 import ij.ImagePlus;
-import ij.gui.Roi;
 import net.imagej.ImgPlus;
 import net.imglib2.Cursor;
 import net.imglib2.Localizable;
@@ -71,12 +74,13 @@ import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.LinAlgHelpers;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 
 import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_BREAK_LINKS;
 import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_CREATE_LINKS;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_GLOBAL_DIVISION_LAP;
+import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_USE_LAPJV;
 import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_USE_MARI_PRINCIPLE;
 import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_PROB_THRESHOLD;
 import static fiji.plugin.trackmate.action.oneat.OneatCorrectorFactory.KEY_MARI_ANGLE;
@@ -98,162 +102,328 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.DEFAULT_SPLITTING_FEATU
 
 public class TrackCorrectorRunner {
 
-	
-	private static SimpleWeightedGraph<Spot, DefaultWeightedEdge> removeTracklets(final Model model,
-			final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph, final Map<String, Object> settings) {
-		int timecutoff = 1;
-		TrackModel trackModel = model.getTrackModel();
+	/**
+	 * Creates the missing division links of the dividing tracks on a pool of
+	 * {@code numThreads} threads, one task per mother cell. The pool is shut
+	 * down once the tasks are submitted, so that its threads end with the last
+	 * task; cancelling a returned future skips the tasks of its lineage that
+	 * have not started yet.
+	 * 
+	 * @return The futures of the edge edits of each dividing track, in
+	 *         submission order
+	 */
+	public static <T extends NativeType<T>> List<Future<Graphobject>> LinkCreator(final Model model, final TrackMate trackmate,
+			HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
+			Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots,
+			HashMap<Integer, Pair<Spot, ArrayList<Spot>>> Mitosisspots, Map<String, Object> settings, final int ndim,
+			final Logger logger, final ImgPlus<T> img, HashMap<Integer, ArrayList<Spot>> framespots,
+			int numThreads, double[] calibration, boolean addDisplay) {
 
-		for (final Integer trackID : trackModel.trackIDs(true)) {
+		return LinkCreator(model, trackmate, uniquelabelID, DividingStartspots, Mitosisspots, settings, ndim, logger,
+				img, framespots, numThreads, calibration, addDisplay, new LinkedBlockingQueue<Future<Graphobject>>(),
+				null);
+	}
 
-			ArrayList<Pair<Integer, Spot>> Sources = new ArrayList<Pair<Integer, Spot>>();
-			ArrayList<Pair<Integer, Spot>> Targets = new ArrayList<Pair<Integer, Spot>>();
-			ArrayList<Integer> SourcesID = new ArrayList<Integer>();
-			ArrayList<Integer> TargetsID = new ArrayList<Integer>();
-			ArrayList<Pair<Integer, Spot>> Starts = new ArrayList<Pair<Integer, Spot>>();
-			ArrayList<Pair<Integer, Spot>> Ends = new ArrayList<Pair<Integer, Spot>>();
-			HashSet<Pair<Integer, Spot>> Splits = new HashSet<Pair<Integer, Spot>>();
+	/**
+	 * Same as above, with each future also put in the completed queue when the
+	 * last task of its lineage ends, so that the results can be consumed in
+	 * completion order.
+	 * 
+	 * @param completed The queue receiving the futures of the finished tasks
+	 * @param report    The report receiving the CPU time of the tasks, the
+	 *                  timing of the local linkers and their sizes, or
+	 *                  {@code null}
+	 */
+	public static <T extends NativeType<T>> List<Future<Graphobject>> LinkCreator(final Model model, final TrackMate trackmate,
+			HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
+			Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots,
+			HashMap<Integer, Pair<Spot, ArrayList<Spot>>> Mitosisspots, Map<String, Object> settings, final int ndim,
+			final Logger logger, final ImgPlus<T> img, HashMap<Integer, ArrayList<Spot>> framespots,
+			int numThreads, double[] calibration, boolean addDisplay,
+			final BlockingQueue<Future<Graphobject>> completed, final OneatRunReport report) {
 
-			final Set<DefaultWeightedEdge> track = trackModel.trackEdges(trackID);
+		// Get the trackmodel and spots in the default tracking result and start to
+		// create a new graph
+		TrackModel trackmodel = model.getTrackModel();
+		SpotCollection allspots = model.getSpots();
 
-			for (final DefaultWeightedEdge e : track) {
+		final ExecutorService executorS = Executors.newFixedThreadPool(Math.max(1, numThreads));
 
-				Spot Spotbase = model.getTrackModel().getEdgeSource(e);
-				Spot Spottarget = model.getTrackModel().getEdgeTarget(e);
+		final AtomicInteger unitcount = new AtomicInteger();
+		double searchdistance = (double) (settings.get(KEY_LINKING_MAX_DISTANCE) != null
+				? (double) settings.get(KEY_LINKING_MAX_DISTANCE)
+				: 10);
+		int tmoneatdeltat = (int) settings.get(KEY_GAP_CLOSING_MAX_FRAME_GAP);
 
-				Integer targetID = Spottarget.ID();
-				Integer sourceID = Spotbase.ID();
-				Sources.add(new ValuePair<Integer, Spot>(sourceID, Spotbase));
-				Targets.add(new ValuePair<Integer, Spot>(targetID, Spottarget));
-				SourcesID.add(sourceID);
-				TargetsID.add(targetID);
+		// Built once, shared read-only by all the link creation tasks
+		final SpotGridIndex spotindex = new SpotGridIndex(allspots, searchdistance);
 
-			}
-			// find track ends
-			for (Pair<Integer, Spot> tid : Targets) {
+		boolean mariprinciple = (boolean) settings.get(KEY_USE_MARI_PRINCIPLE);
+		double mariangle = (double) settings.get(KEY_MARI_ANGLE);
+		boolean globaldivisionlap = settings.get(KEY_GLOBAL_DIVISION_LAP) != null
+				&& (boolean) settings.get(KEY_GLOBAL_DIVISION_LAP);
+		boolean uselapjv = settings.get(KEY_USE_LAPJV) != null && (boolean) settings.get(KEY_USE_LAPJV);
 
-				if (!SourcesID.contains(tid.getA())) {
+		final Map<String, Object> cmsettings = getCostMatrixSettings(settings, searchdistance, tmoneatdeltat);
+		List<Future<Graphobject>> grapherlist = new ArrayList<>();
+		// Lets take care of mitosis
+		if (Mitosisspots != null) {
+			logger.log("Matched Oneat Locations with Spots in Tracks " + " " + Mitosisspots.entrySet().size() + "\n");
+			if (mariprinciple)
+				logger.log("Using Mari's priniciple for track linking.\n");
+			logger.setStatus("Local Jaqaman Linker");
+			logger.setProgress(0.);
 
-					Ends.add(tid);
+			if (globaldivisionlap) {
+
+				// One assignment problem per frame, over the neighbourhoods of all the
+				// mother cells of that frame, so that a daughter goes to one mother
+				// only. The frames with the largest neighbourhoods are submitted
+				// first, the linker solves the unrelated parts of a frame separately.
+				final TreeMap<Integer, ArrayList<Spot>> framemothers = new TreeMap<>();
+				final HashMap<Integer, Long> framesizes = new HashMap<>();
+				for (Pair<Spot, ArrayList<Spot>> trackspots : Mitosisspots.values())
+					for (Spot motherspot : trackspots.getB()) {
+						final int frame = motherspot.getFeature(Spot.FRAME).intValue();
+						framemothers.computeIfAbsent(frame, f -> new ArrayList<>()).add(motherspot);
+						final double[] position = SpotGridIndex.positionOf(motherspot);
+						long size = 0;
+						for (int i = 1; i < tmoneatdeltat; ++i)
+							size += spotindex.estimate(frame + i, position, searchdistance);
+						framesizes.merge(frame, size, Long::sum);
+					}
+				final ArrayList<Integer> frameorder = new ArrayList<>(framemothers.keySet());
+				frameorder.sort((f, g) -> Long.compare(framesizes.get(g), framesizes.get(f)));
 
-				}
+				final int nframes = frameorder.size();
+				if (report != null)
+					report.setTotal(Stage.LINK_CREATION, nframes);
+				for (final Integer frame : frameorder) {
 
-			}
+					final ArrayList<Spot> mothers = framemothers.get(frame);
+					final LineageLinks framelinks = new LineageLinks(1, completed);
+					grapherlist.add(framelinks.result);
 
-			// find track starts
-			for (Pair<Integer, Spot> sid : Sources) {
+					executorS.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
 
-				if (!TargetsID.contains(sid.getA())) {
-					Starts.add(sid);
+							try {
 
-				}
+								if (framelinks.result.isDone()) {
+									framelinks.skipped();
+									return null;
+								}
+								final OneatRunReport.Timer tasktimer = report != null ? report.start(Stage.LINK_CREATION) : null;
+								final Object taskevent = OneatEvents.EVENTS.beginLinkCreation();
+
+								ArrayList<Pair<Spot, Spot>> removeedges = new ArrayList<>();
+								ArrayList<Pair<Spot, Spot>> addedges = new ArrayList<>();
+								ArrayList<Double> costlist = new ArrayList<>();
+
+								final SimpleWeightedGraph<Spot, DefaultWeightedEdge> localgraph = new SimpleWeightedGraph<>(
+										DefaultWeightedEdge.class);
+								final ArrayList<Pair<double[], double[]>> motheraxes = new ArrayList<>(mothers.size());
+								for (Spot motherspot : mothers) {
+									Pair<double[], double[]> slope = getMotherAxes(motherspot, img, calibration, ndim);
+									motheraxes.add(slope);
+									addMotherNeighbourhood(localgraph, trackmodel, spotindex, motherspot, slope.getA(),
+											tmoneatdeltat, searchdistance, mariangle, mariprinciple);
+								}
 
-			}
+								final OneatCostMatrix costMatrixCreator = new OneatCostMatrix(localgraph, cmsettings);
+								final LocalJaqamanLinker<Spot, Spot> linker = new LocalJaqamanLinker<>(costMatrixCreator,
+										logger);
+								// Already one task per frame on the pool
+								costMatrixCreator.setNumThreads(1);
+								linker.setNumThreads(1);
+								linker.setUseLAPJV(uselapjv);
+								solve(linker, logger, report);
+
+								final int[] assignment = linker.getAssignment();
+								final double[] costs = linker.getCosts();
+
+								// Each link is checked against the mother cell closest to its source
+								if (assignment != null) {
+
+									for (int i = 0; i < assignment.length; ++i) {
+
+										if (assignment[i] < 0)
+											continue;
+										final Spot source = linker.getSourceList().get(i);
+										int closest = 0;
+										for (int m = 1; m < mothers.size(); ++m)
+											if (source.squareDistanceTo(mothers.get(m)) < source
+													.squareDistanceTo(mothers.get(closest)))
+												closest = m;
+
+										collectMotherLink(trackmodel, trackmate.getSettings().imp, mothers.get(closest),
+												motheraxes.get(closest).getA(), motheraxes.get(closest).getB(), source,
+												linker.getTargetList().get(assignment[i]), costs[i], searchdistance,
+												mariprinciple, addDisplay, removeedges, addedges, costlist);
+									}
+								}
 
-			// find track splits
-			int scount = 0;
-			for (Pair<Integer, Spot> sid : Sources) {
+								if (tasktimer != null)
+									tasktimer.stopCpu();
+								OneatEvents.EVENTS.commitLinkCreation(taskevent, -1, frame, mothers.size(),
+										localgraph.vertexSet().size(),
+										assignment != null ? linker.getSourceList().size() : 0,
+										assignment != null ? linker.getTargetList().size() : 0, addedges.size());
+								framelinks.done(0, new Graphobject(removeedges, addedges, costlist));
+
+							} catch (Throwable e) {
+								framelinks.failed(e);
+							} finally {
+								logger.setProgress((double) unitcount.incrementAndGet() / nframes);
+								if (report != null)
+									report.advance(Stage.LINK_CREATION, 1);
+							}
 
-				for (Pair<Integer, Spot> dupsid : Sources) {
+							return null;
+						}
 
-					if (dupsid.getA().intValue() == sid.getA().intValue()) {
-						scount++;
-					}
-				}
-				if (scount > 1) {
-					Splits.add(sid);
+					});
 				}
-				scount = 0;
-			}
-
-			if (Splits.size() > 0) {
+				executorS.shutdown();
 
-				for (Pair<Integer, Spot> sid : Ends) {
+				return grapherlist;
+			}
 
-					Spot Spotend = sid.getB();
+			// One work unit per mother cell, so that a lineage with many missed
+			// divisions is spread over the pool instead of holding one thread. The
+			// units with the largest neighbourhoods are submitted first, and the
+			// edits of a lineage are merged once all of its units are done.
+			final ArrayList<Spot> unitmothers = new ArrayList<>();
+			final ArrayList<LineageLinks> unitlineages = new ArrayList<>();
+			final ArrayList<Integer> unitparts = new ArrayList<>();
+			final ArrayList<Integer> unittracks = new ArrayList<>();
+			for (Map.Entry<Integer, Pair<Spot, ArrayList<Spot>>> trackidspots : Mitosisspots.entrySet()) {
 
-					int trackletlength = 0;
+				ArrayList<Spot> mitosismotherspots = trackidspots.getValue().getB();
+				LineageLinks lineage = new LineageLinks(mitosismotherspots.size(), completed);
+				grapherlist.add(lineage.result);
+				for (int part = 0; part < mitosismotherspots.size(); ++part) {
+					unitmothers.add(mitosismotherspots.get(part));
+					unitlineages.add(lineage);
+					unitparts.add(part);
+					unittracks.add(trackidspots.getKey());
+				}
+			}
 
-					double minsize = Double.MAX_VALUE;
-					Spot Actualsplit = null;
-					for (Pair<Integer, Spot> splitid : Splits) {
-						Spot Spotstart = splitid.getB();
-						Set<Spot> spotset = connectedSetOf(graph, Spotend, Spotstart);
+			final int nunits = unitmothers.size();
+			if (report != null)
+				report.setTotal(Stage.LINK_CREATION, nunits);
+			final long[] unitsizes = new long[nunits];
+			final Integer[] unitorder = new Integer[nunits];
+			for (int u = 0; u < nunits; ++u) {
+				final Spot motherspot = unitmothers.get(u);
+				final double[] position = SpotGridIndex.positionOf(motherspot);
+				for (int i = 1; i < tmoneatdeltat; ++i)
+					unitsizes[u] += spotindex.estimate(motherspot.getFeature(Spot.FRAME).intValue() + i, position,
+							searchdistance);
+				unitorder[u] = u;
+			}
+			Arrays.sort(unitorder, (u, v) -> Long.compare(unitsizes[v], unitsizes[u]));
 
-						if (spotset.size() < minsize) {
+			for (final Integer u : unitorder) {
 
-							minsize = spotset.size();
-							Actualsplit = Spotstart;
+				final Spot motherspot = unitmothers.get(u);
+				final LineageLinks lineage = unitlineages.get(u);
+				final int part = unitparts.get(u);
+				final int unittrack = unittracks.get(u);
 
-						}
+				executorS.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
 
-					}
+						try {
 
-					if (Actualsplit != null) {
-						Set<Spot> connectedspotset = connectedSetOf(graph, Spotend, Actualsplit);
-						trackletlength = (int) Math.abs(Actualsplit.diffTo(Spotend, Spot.FRAME));
+							// The lineage result was cancelled or failed, skip
+							if (lineage.result.isDone()) {
+								lineage.skipped();
+								return null;
+							}
+							final OneatRunReport.Timer tasktimer = report != null ? report.start(Stage.LINK_CREATION) : null;
+							final Object taskevent = OneatEvents.EVENTS.beginLinkCreation();
 
-						if (trackletlength <= timecutoff) {
+							ArrayList<Pair<Spot, Spot>> removeedges = new ArrayList<>();
+							ArrayList<Pair<Spot, Spot>> addedges = new ArrayList<>();
+							ArrayList<Double> costlist = new ArrayList<>();
 
-							Iterator<Spot> it = connectedspotset.iterator();
-							while (it.hasNext())
-								graph.removeVertex(it.next());
+							// Create the pixel list for the mother cell
+							Pair<double[], double[]> slope = getMotherAxes(motherspot, img, calibration, ndim);
+							double[] motherslope = slope.getA();
+							double[] largemotherslope = slope.getB();
 
-						}
-					}
+							final SimpleWeightedGraph<Spot, DefaultWeightedEdge> localgraph = new SimpleWeightedGraph<>(
+									DefaultWeightedEdge.class);
+							addMotherNeighbourhood(localgraph, trackmodel, spotindex, motherspot, motherslope,
+									tmoneatdeltat, searchdistance, mariangle, mariprinciple);
 
-				}
-			}
-		}
+							final OneatCostMatrix costMatrixCreator = new OneatCostMatrix(localgraph, cmsettings);
+							final LocalJaqamanLinker<Spot, Spot> linker = new LocalJaqamanLinker<>(costMatrixCreator,
+									logger);
+							// Already one task per mother cell on the pool
+							costMatrixCreator.setNumThreads(1);
+							linker.setNumThreads(1);
+							linker.setUseLAPJV(uselapjv);
+							solve(linker, logger, report);
 
-		return graph;
+							final int[] assignment = linker.getAssignment();
+							final double[] costs = linker.getCosts();
 
-	}
-	
+							// Recreate new links
+							if (assignment != null) {
 
-	private static Set<Spot> connectedSetOf(SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph, Spot vertex,
-			Spot split) {
+								for (int i = 0; i < assignment.length; ++i) {
 
-		Set<Spot> connectedSet = new HashSet<>();
+									if (assignment[i] < 0)
+										continue;
+									collectMotherLink(trackmodel, trackmate.getSettings().imp, motherspot, motherslope,
+											largemotherslope, linker.getSourceList().get(i),
+											linker.getTargetList().get(assignment[i]), costs[i],
+											searchdistance, mariprinciple, addDisplay, removeedges, addedges,
+											costlist);
+								}
 
-		connectedSet = new HashSet<>();
+							}
 
-		BreadthFirstIterator<Spot, DefaultWeightedEdge> i = new BreadthFirstIterator<>(graph, vertex);
+							if (tasktimer != null)
+								tasktimer.stopCpu();
+							OneatEvents.EVENTS.commitLinkCreation(taskevent, unittrack,
+									motherspot.getFeature(Spot.FRAME).intValue(), 1, localgraph.vertexSet().size(),
+									assignment != null ? linker.getSourceList().size() : 0,
+									assignment != null ? linker.getTargetList().size() : 0, addedges.size());
+							lineage.done(part, new Graphobject(removeedges, addedges, costlist));
+
+						} catch (Throwable e) {
+							lineage.failed(e);
+						} finally {
+							logger.setProgress((double) unitcount.incrementAndGet() / nunits);
+							if (report != null)
+								report.advance(Stage.LINK_CREATION, 1);
+						}
 
-		do {
-			Spot spot = i.next();
-			if (spot.ID() == split.ID()) {
-				break;
+						return null;
+					}
 
+				});
 			}
-			connectedSet.add(spot);
-		} while (i.hasNext());
-
-		return connectedSet;
-	}
-	
-	public static <T extends NativeType<T>> List<Future<Graphobject>> LinkCreator(final Model model, final TrackMate trackmate,
-			HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
-			Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots,
-			HashMap<Integer, Pair<Spot, ArrayList<Spot>>> Mitosisspots, Map<String, Object> settings, final int ndim,
-			final Logger logger, final ImgPlus<T> img, HashMap<Integer, ArrayList<Spot>> framespots,
-			int numThreads, double[] calibration, boolean addDisplay) {
 
-		// Get the trackmodel and spots in the default tracking result and start to
-		// create a new graph
-		TrackModel trackmodel = model.getTrackModel();
-		SpotCollection allspots = model.getSpots();
+		}
+		executorS.shutdown();
 
-		final ExecutorService executorS = Executors.newWorkStealingPool();
+		return grapherlist;
 
-		final ArrayList<Integer> trackcountlist = new ArrayList<Integer>();
-		double searchdistance = (double) (settings.get(KEY_LINKING_MAX_DISTANCE) != null
-				? (double) settings.get(KEY_LINKING_MAX_DISTANCE)
-				: 10);
-		int tmoneatdeltat = (int) settings.get(KEY_GAP_CLOSING_MAX_FRAME_GAP);
+	}
 
-		boolean mariprinciple = (boolean) settings.get(KEY_USE_MARI_PRINCIPLE);
-		double mariangle = (double) settings.get(KEY_MARI_ANGLE);
+	/**
+	 * Returns the settings of the local cost matrices of the link creation,
+	 * from the settings of the corrector.
+	 */
+	static Map<String, Object> getCostMatrixSettings(final Map<String, Object> settings, final double searchdistance,
+			final int tmoneatdeltat) {
 
 		Map<String, Object> cmsettings = new HashMap<>();
 		// Gap closing.
@@ -314,222 +484,39 @@ public class TrackCorrectorRunner {
 			cmsettings.put(KEY_SPLITTING_FEATURE_PENALTIES, settings.get(KEY_SPLITTING_FEATURE_PENALTIES));
 		else
 			cmsettings.put(KEY_SPLITTING_FEATURE_PENALTIES, settings.get(KEY_LINKING_FEATURE_PENALTIES));
-		List<Future<Graphobject>> grapherlist = new ArrayList<>();
-		// Lets take care of mitosis
-		if (Mitosisspots != null) {
-			logger.log("Matched Oneat Locations with Spots in Tracks " + " " + Mitosisspots.entrySet().size() + "\n");
-			if (mariprinciple)
-				logger.log("Using Mari's priniciple for track linking.\n");
-			logger.setStatus("Local Jaqaman Linker");
-			logger.setProgress(0.);
-
-			for (Map.Entry<Integer, Pair<Spot, ArrayList<Spot>>> trackidspots : Mitosisspots.entrySet()) {
-
-				ArrayList<Pair<Spot, Spot>> removeedges = new ArrayList<>();
-				ArrayList<Pair<Spot, Spot>> addedges = new ArrayList<>();
-				ArrayList<Double> costlist = new ArrayList<>();
-
-				Future<Graphobject> result = executorS.submit(new Callable<Graphobject>() {
-					@Override
-					public Graphobject call() throws Exception {
-						int trackcount = 0;
-						trackcountlist.add(trackcount);
-						// List of all the mother cells and the root of the lineage tree
-						Pair<Spot, ArrayList<Spot>> trackspots = trackidspots.getValue();
-
-						ArrayList<Spot> mitosismotherspots = trackspots.getB();
-
-						// Create a new map of spot and label
-
-						// Create the pixel list for mother cells
-
-						Ellipsoid ellipsoid = null;
-						double[] motherslope = new double[2];
-						double[] largemotherslope = new double[2];
-						Pair<double[], double[]> slope = new ValuePair<double[], double[]>(motherslope,
-								largemotherslope);
-
-						for (Spot motherspot : mitosismotherspots) {
-
-							Set<DefaultWeightedEdge> mothertrack = trackmodel.edgesOf(motherspot);
-
-							ellipsoid = getEllipsoid(motherspot, img, calibration);
-
-							if (ellipsoid != null) {
-								slope = getEigen(ellipsoid, ndim);
-								motherslope = slope.getA();
-								largemotherslope = slope.getB();
-							}
-
-							final SimpleWeightedGraph<Spot, DefaultWeightedEdge> localgraph = new SimpleWeightedGraph<>(
-									DefaultWeightedEdge.class);
-
-							for (DefaultWeightedEdge localedge : mothertrack) {
-
-								final Spot source = trackmodel.getEdgeSource(localedge);
-
-								final Spot target = trackmodel.getEdgeTarget(localedge);
-
-								if (target.ID() == motherspot.ID() || source.ID() == motherspot.ID()) {
-									final double linkcost = trackmodel.getEdgeWeight(localedge);
-									localgraph.addVertex(source);
-									localgraph.addVertex(target);
-									localgraph.addEdge(source, target);
-									localgraph.setEdgeWeight(localedge, linkcost);
-
-								}
-
-							}
-
-							for (int i = 1; i < tmoneatdeltat; ++i) {
-
-								double frame = motherspot.getFeature(Spot.FRAME) + i;
-								if (frame > 0) {
-
-									SpotCollection regionspots = regionspot(img, allspots, motherspot, logger,
-											calibration, (int) frame, searchdistance, motherslope, mariangle,
-											mariprinciple);
-
-									if (regionspots.getNSpots((int) frame, false) > 0)
-										for (Spot spot : regionspots.iterable((int) frame, false)) {
-
-											if (trackmodel.trackIDOf(spot) != null) {
-												int regiontrackID = trackmodel.trackIDOf(spot);
-												Set<DefaultWeightedEdge> localtracks = trackmodel
-														.trackEdges(regiontrackID);
-
-												for (DefaultWeightedEdge localedge : localtracks) {
-
-													final Spot source = trackmodel.getEdgeSource(localedge);
-
-													if (source.getFeature(Spot.FRAME) == frame) {
-														final Spot target = trackmodel.getEdgeTarget(localedge);
-														final double linkcost = trackmodel.getEdgeWeight(localedge);
-
-														localgraph.addVertex(source);
-														localgraph.addVertex(target);
-														localgraph.addEdge(source, target);
-														localgraph.setEdgeWeight(localedge, linkcost);
-
-													}
-												}
-
-											}
-										}
-
-								}
-							}
-
-							final OneatCostMatrix costMatrixCreator = new OneatCostMatrix(localgraph, cmsettings);
-							costMatrixCreator.setNumThreads(numThreads);
-							logger.setProgress((double) trackcountlist.size() / Mitosisspots.entrySet().size());
-							final LocalJaqamanLinker<Spot, Spot> linker = new LocalJaqamanLinker<>(costMatrixCreator,
-									logger);
-							if (!linker.checkInput() || !linker.process()) {
-								System.out.println(linker.getErrorMessage());
-							}
-
-						
-
-							final Map<Spot, Spot> assignment = linker.getResult();
-							final Map<Spot, Double> costs = linker.getAssignmentCosts();
-							
-							
-							// Recreate new links
-							if (assignment != null) {
-
-								for (final Spot source : assignment.keySet()) {
-
-									final Spot target = assignment.get(source);
-
-									Set<DefaultWeightedEdge> targetlinks = trackmodel.edgesOf(target);
-
-									boolean validlink = true;
-									if (mariprinciple)
-										validlink = false;
-									final double cost = costs.get(source);
-									
-									Set<DefaultWeightedEdge> drawlinkslinks = trackmodel.edgesOf(source);
-									OneatOverlay oneatOverlayFirst = new OneatOverlay(motherspot, source, target,
-											motherslope, largemotherslope, trackmate.getSettings().imp);
-									double motheraxis = largemotherslope[1] / largemotherslope[0];
-
-									double intercept = motherspot.getDoublePosition(1)
-											- motheraxis * motherspot.getDoublePosition(0);
-
-									double daughtermotheraxis = (target.getDoublePosition(1)
-											- motheraxis * target.getDoublePosition(0) - intercept);
-
-									for (DefaultWeightedEdge targetedge : drawlinkslinks) {
-										Spot targetsource = trackmodel.getEdgeTarget(targetedge);
-										OneatOverlay oneatOverlay = new OneatOverlay(motherspot, source, targetsource,
-												motherslope, largemotherslope, trackmate.getSettings().imp);
-
-										if (source.getDoublePosition(0) != targetsource.getDoublePosition(0)) {
-											double daughtermotheraxisB = (targetsource.getDoublePosition(1)
-													- motheraxis * targetsource.getDoublePosition(0) - intercept);
-
-											if (mariprinciple)
-												if (Math.signum(daughtermotheraxisB)
-														* Math.signum(daughtermotheraxis) < 0) {
-													validlink = true;
-													if (addDisplay) {
-														addOverlay(oneatOverlayFirst, trackmate.getSettings().imp,
-																motherspot);
-														addOverlay(oneatOverlay, trackmate.getSettings().imp,
-																motherspot);
-													}
-												}
-											if (!mariprinciple) {
-												if (addDisplay) {
-													addOverlay(oneatOverlayFirst, trackmate.getSettings().imp,
-															motherspot);
-													addOverlay(oneatOverlay, trackmate.getSettings().imp, motherspot);
-												}
-											}
-
-										}
-									}
-									
-									if (validlink && cost < searchdistance * searchdistance /2) {
-										// Remove the targetsource and target edge prior to assingment
-										for (DefaultWeightedEdge targetedge : targetlinks) {
-
-											Spot targetsource = trackmodel.getEdgeSource(targetedge);
-											removeedges.add(new ValuePair<Spot, Spot>(targetsource, target));
-										}
-
-										for (DefaultWeightedEdge targetedge : drawlinkslinks) {
-
-											Spot targetsource = trackmodel.getEdgeSource(targetedge);
-											removeedges.add(new ValuePair<Spot, Spot>(targetsource, target));
-										}
-
-										addedges.add(new ValuePair<Spot, Spot>(source, target));
-										costlist.add(cost);
-										
-									}
-
-								}
-
-							}
-
-						}
-
-						Graphobject grapher = new Graphobject(removeedges, addedges, costlist);
-
-						return grapher;
-					}
-
-				});
-
-				grapherlist.add(result);
-			}
+		return cmsettings;
+	}
 
+	/**
+	 * Runs a local linker, timed as a LAP solve with its size in the report if
+	 * there is one. A failed solve is logged as an error and counted.
+	 */
+	private static void solve(final LocalJaqamanLinker<Spot, Spot> linker, final Logger logger,
+			final OneatRunReport report) {
+
+		final OneatRunReport.Timer timer = report == null ? null : report.start(Stage.LAP_SOLVE);
+		final boolean solved;
+		try {
+			solved = linker.checkInput() && linker.process();
+		} finally {
+			if (timer != null)
+				timer.stop();
 		}
-
-		return grapherlist;
-
+		if (!solved) {
+			logger.error(linker.getErrorMessage() + "\n");
+			if (report != null)
+				report.add(Counter.LAP_FAILURES, 1);
+			return;
+		}
+		if (report == null)
+			return;
+
+		final int nsources = linker.getSourceList().size();
+		final int ntargets = linker.getTargetList().size();
+		report.add(Counter.LAP_PROBLEMS, 1);
+		report.add(Counter.LAP_SOURCES, nsources);
+		report.add(Counter.LAP_TARGETS, ntargets);
+		report.max(Counter.LAP_LARGEST, nsources + ntargets);
 	}
 
 	/**
@@ -555,18 +542,22 @@ public class TrackCorrectorRunner {
 	 * @param calibration        The image calibration
 	 * @param addDisplay         A boolean to add Oneat display, set no if saving
 	 *                           memory is of concern
-	 * @return Returns corrected graph that is then set on the model
+	 * @param report             The report timing the link breaking and the
+	 *                           link creation, or {@code null}
+	 * @return Returns corrected graph, to be applied on the model with
+	 *         {@link #commitCorrectedTracks(Model, SimpleWeightedGraph, Logger, OneatRunReport)}
 	 * @throws ExecutionException
 	 * @throws InterruptedException
 	 */
-
-	public  static  <T extends NativeType<T>> SimpleWeightedGraph<Spot, DefaultWeightedEdge>  getCorrectedTracks(final Model model,
-			final TrackMate trackmate, HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
+	public static <T extends NativeType<T>> SimpleWeightedGraph<Spot, DefaultWeightedEdge> getCorrectedTracks(
+			final Model model, final TrackMate trackmate,
+			HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
 			Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots,
 			HashMap<Integer, Pair<Spot, ArrayList<Spot>>> Mitosisspots,
 			HashMap<Integer, Pair<Spot, Spot>> Apoptosisspots, Map<String, Object> settings, final int ndim,
 			final Logger logger, final ImgPlus<T> img, HashMap<Integer, ArrayList<Spot>> framespots,
-			int numThreads, double[] calibration, boolean addDisplay) throws InterruptedException, ExecutionException {
+			int numThreads, double[] calibration, boolean addDisplay, final OneatRunReport report)
+			throws InterruptedException, ExecutionException {
 
 		// Get the trackmodel and spots in the default tracking result and start to
 		// create a new graph
@@ -593,10 +584,14 @@ public class TrackCorrectorRunner {
 
 			}
 		}
-		if (breaklinks)
+		if (breaklinks) {
 
+			final OneatRunReport.Timer timer = report != null ? report.start(Stage.BREAK_LINKS) : null;
 			graph = BreakLinksTrack(model, uniquelabelID, DividingStartspots, framespots, img, logger, graph,
 					calibration, tmoneatdeltat);
+			if (timer != null)
+				timer.stop();
+		}
 
 		int count = 0;
 		if (Apoptosisspots != null) {
@@ -655,39 +650,30 @@ public class TrackCorrectorRunner {
 		if (createlinks) {
 		    if (Mitosisspots != null) {
 
+		        // Apply the edits of each lineage as soon as its task is done, a slow
+		        // lineage does not hold back the ones that finished after it
+		        final OneatRunReport.Timer timer = report != null ? report.start(Stage.LINK_CREATION) : null;
+		        final BlockingQueue<Future<Graphobject>> completed = new LinkedBlockingQueue<>();
 		        List<Future<Graphobject>> graphlistresult = LinkCreator(model, trackmate, uniquelabelID,
 		                DividingStartspots, Mitosisspots, settings, ndim, logger, img, framespots, numThreads,
-		                calibration, addDisplay);
-		        for (Future<Graphobject> graphresult : graphlistresult) {
-		            try {
-		                Graphobject object = graphresult.get();
-		                ArrayList<Pair<Spot, Spot>> removeedges = object.removeedges;
-		                ArrayList<Pair<Spot, Spot>> addedges = object.addedges;
-		                ArrayList<Double> costlist = object.costlist;
-
-		                for (int i = 0; i < costlist.size(); ++i) {
-		                    Pair<Spot, Spot> removesourcetarget = removeedges.get(i);
-		                    graph.removeEdge(removesourcetarget.getA(), removesourcetarget.getB());
-		                }
-		                for (int i = 0; i < costlist.size(); ++i) {
-		                    Pair<Spot, Spot> addsourcetarget = addedges.get(i);
-		                    double cost = costlist.get(i);
-		                    graph.addVertex(addsourcetarget.getA());
-		                    graph.addVertex(addsourcetarget.getB());
-
-		                    if (graph.degreeOf(addsourcetarget.getB()) < 2) {
-		                        final DefaultWeightedEdge edge = graph.addEdge(addsourcetarget.getA(), addsourcetarget.getB());
-		                        if (edge != null && graph.containsEdge(edge)) {
-		                            graph.setEdgeWeight(edge, cost);
-		                        } else {
-		                            System.out.println("Failed to add edge or edge no longer exists between " + addsourcetarget.getA() + " and " + addsourcetarget.getB());
-		                        }
-		                    }
+		                calibration, addDisplay, completed, report);
+		        try {
+		            for (int n = 0; n < graphlistresult.size(); ++n) {
+		                try {
+		                    applyLinkEdits(graph, completed.take().get());
+		                } catch (InterruptedException e) {
+		                    // Stop the tasks still running, the pool ends with them
+		                    for (Future<Graphobject> pending : graphlistresult)
+		                        pending.cancel(true);
+		                    throw e;
+		                } catch (Exception e) {
+		                    // Log the exception or handle it as needed
+		                    e.printStackTrace();
 		                }
-		            } catch (Exception e) {
-		                // Log the exception or handle it as needed
-		                e.printStackTrace();
 		            }
+		        } finally {
+		            if (timer != null)
+		                timer.stop();
 		        }
 
 		    }
@@ -695,110 +681,315 @@ public class TrackCorrectorRunner {
 
 		
 		logger.setProgress(1d);
-		
-		logger.log("Done, please review the TrackScheme by going back.\n");
 
+		return graph;
+
+	}
+
+	/**
+	 * Applies the edge edits found by the link creation of one lineage to the
+	 * corrected graph. A target already linked twice by an earlier lineage is
+	 * left as is.
+	 */
+	private static void applyLinkEdits(final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph,
+			final Graphobject object) {
+
+		ArrayList<Pair<Spot, Spot>> removeedges = object.removeedges;
+		ArrayList<Pair<Spot, Spot>> addedges = object.addedges;
+		ArrayList<Double> costlist = object.costlist;
+
+		for (int i = 0; i < costlist.size(); ++i) {
+			Pair<Spot, Spot> removesourcetarget = removeedges.get(i);
+			graph.removeEdge(removesourcetarget.getA(), removesourcetarget.getB());
+		}
+		for (int i = 0; i < costlist.size(); ++i) {
+			Pair<Spot, Spot> addsourcetarget = addedges.get(i);
+			double cost = costlist.get(i);
+			graph.addVertex(addsourcetarget.getA());
+			graph.addVertex(addsourcetarget.getB());
+
+			if (graph.degreeOf(addsourcetarget.getB()) < 2) {
+				final DefaultWeightedEdge edge = graph.addEdge(addsourcetarget.getA(), addsourcetarget.getB());
+				if (edge != null && graph.containsEdge(edge)) {
+					graph.setEdgeWeight(edge, cost);
+				} else {
+					System.out.println("Failed to add edge or edge no longer exists between "
+							+ addsourcetarget.getA() + " and " + addsourcetarget.getB());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies the corrected graph to the model as a set of edge edits, instead
+	 * of clearing and rebuilding every track. Only the edges that differ
+	 * between the model and the corrected graph are removed or added, so the
+	 * tracks that were not touched by the correction keep their IDs.
+	 * 
+	 * @param model  The TrackMate model to update
+	 * @param graph  The corrected graph returned by getCorrectedTracks
+	 * @param logger TrackMate logger
+	 * @param report The report counting the edges removed and added, or
+	 *               {@code null}
+	 * @return The IDs of the tracks whose topology changed, as found in the
+	 *         model after the update
+	 */
+	public static Set<Integer> commitCorrectedTracks(final Model model,
+			final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph, final Logger logger,
+			final OneatRunReport report) {
+
+		final Object event = OneatEvents.EVENTS.beginModelCommit();
+		TrackModel trackmodel = model.getTrackModel();
+
+		// Edges of the model that did not survive the correction
+		ArrayList<Pair<Spot, Spot>> removeedges = new ArrayList<Pair<Spot, Spot>>();
+		for (final DefaultWeightedEdge edge : trackmodel.edgeSet()) {
+
+			final Spot source = trackmodel.getEdgeSource(edge);
+			final Spot target = trackmodel.getEdgeTarget(edge);
+			if (!graph.containsVertex(source) || !graph.containsVertex(target) || !graph.containsEdge(source, target))
+				removeedges.add(new ValuePair<Spot, Spot>(source, target));
+		}
+
+		// Edges created by the correction
+		ArrayList<DefaultWeightedEdge> addedges = new ArrayList<DefaultWeightedEdge>();
+		for (final DefaultWeightedEdge edge : graph.edgeSet()) {
+
+			if (!trackmodel.containsEdge(graph.getEdgeSource(edge), graph.getEdgeTarget(edge)))
+				addedges.add(edge);
+		}
+
+		Set<Spot> touchedspots = new HashSet<Spot>();
 		model.beginUpdate();
-		model.clearTracks(true);
-        IJ.wait(1000);
+		try {
+			for (Pair<Spot, Spot> removesourcetarget : removeedges) {
 
-		model.setTracks(graph, true);
-		
-		logger.log("New tracks: " + model.getTrackModel().nTracks(true));
-		model.endUpdate();
+				model.removeEdge(removesourcetarget.getA(), removesourcetarget.getB());
+				touchedspots.add(removesourcetarget.getA());
+				touchedspots.add(removesourcetarget.getB());
+			}
+			for (final DefaultWeightedEdge edge : addedges) {
 
-		return graph;
+				final Spot source = graph.getEdgeSource(edge);
+				final Spot target = graph.getEdgeTarget(edge);
+				model.addEdge(source, target, graph.getEdgeWeight(edge));
+				touchedspots.add(source);
+				touchedspots.add(target);
+			}
+		} finally {
+			model.endUpdate();
+		}
+
+		// Track IDs are only stable once the update is flushed
+		Set<Integer> affectedtrackIDs = new HashSet<Integer>();
+		for (Spot spot : touchedspots) {
+
+			final Integer trackID = trackmodel.trackIDOf(spot);
+			if (trackID != null)
+				affectedtrackIDs.add(trackID);
+		}
+		for (Integer trackID : affectedtrackIDs)
+			if (!trackmodel.isVisible(trackID))
+				model.setTrackVisibility(trackID, true);
+
+		if (report != null) {
+			report.add(Counter.EDGES_REMOVED, removeedges.size());
+			report.add(Counter.EDGES_ADDED, addedges.size());
+		}
+		OneatEvents.EVENTS.commitModelCommit(event, removeedges.size(), addedges.size(), affectedtrackIDs.size());
+		logger.log("Removed " + removeedges.size() + " and added " + addedges.size() + " links in "
+				+ affectedtrackIDs.size() + " tracks.\n");
+		logger.log("Done, please review the TrackScheme by going back.\n");
+		logger.log("New tracks: " + trackmodel.nTracks(true) + "\n");
 
+		return affectedtrackIDs;
 	}
-	
 
 
-	private static void addOverlay(final Roi overlay, final ImagePlus imp, final Spot spot) {
 
-		imp.getOverlay().add(overlay);
+	/**
+	 * Returns the short and long axes of a mother cell, from the ellipsoid
+	 * fitted to its label, or zero axes if no ellipsoid could be fitted.
+	 */
+	static <T extends NativeType<T>> Pair<double[], double[]> getMotherAxes(final Spot motherspot,
+			final ImgPlus<T> img, final double[] calibration, final int ndim) {
 
+		Ellipsoid ellipsoid = getEllipsoid(motherspot, img, calibration);
+		if (ellipsoid == null)
+			return new ValuePair<double[], double[]>(new double[2], new double[2]);
+		return getEigen(ellipsoid, ndim);
 	}
 
-	private static <T extends NativeType<T>> SpotCollection regionspot(final ImgPlus<T> img, final SpotCollection allspots,
-			final Spot motherspot, final Logger logger, final double[] calibration, final int frame,
-			final double region, final double[] motherslope, final double mariangle, final boolean mariprinciple) {
+	/**
+	 * Adds to the local graph the links of a mother cell and the links
+	 * starting from the candidate daughters in the frames after it.
+	 */
+	static void addMotherNeighbourhood(final SimpleWeightedGraph<Spot, DefaultWeightedEdge> localgraph,
+			final TrackModel trackmodel, final SpotGridIndex spotindex, final Spot motherspot,
+			final double[] motherslope, final int tmoneatdeltat, final double searchdistance,
+			final double mariangle, final boolean mariprinciple) {
 
-		SpotCollection regionspots = new SpotCollection();
+		Set<DefaultWeightedEdge> mothertrack = trackmodel.edgesOf(motherspot);
 
-		final int Nspots = allspots.getNSpots(frame, false);
-		if (Nspots > 0)
-			for (Spot spot : allspots.iterable(frame, false)) {
+		for (DefaultWeightedEdge localedge : mothertrack) {
 
-				if (mariprinciple) {
+			final Spot source = trackmodel.getEdgeSource(localedge);
 
-					double motheraxis = motherslope[1] / motherslope[0];
+			final Spot target = trackmodel.getEdgeTarget(localedge);
 
-					double daughtermotheraxis = (motherspot.getDoublePosition(1) - spot.getDoublePosition(1))
-							/ (motherspot.getDoublePosition(0) - spot.getDoublePosition(0));
+			if (target.ID() == motherspot.ID() || source.ID() == motherspot.ID()) {
+				final double linkcost = trackmodel.getEdgeWeight(localedge);
+				localgraph.addVertex(source);
+				localgraph.addVertex(target);
+				localgraph.addEdge(source, target);
+				localgraph.setEdgeWeight(localedge, linkcost);
 
-					double signeddaughtermotherangle = ((180 / 3.14)
-							* Math.atan((motheraxis - daughtermotheraxis) / (1 + motheraxis * daughtermotheraxis)));
+			}
 
-					double daughtermotherangle = Math.abs(signeddaughtermotherangle);
+		}
 
-					if (motherspot.squareDistanceTo(spot) <= region * region && daughtermotherangle <= mariangle) {
+		for (int i = 1; i < tmoneatdeltat; ++i) {
 
-						regionspots.add(spot, frame);
+			double frame = motherspot.getFeature(Spot.FRAME) + i;
+			if (frame > 0) {
 
-					}
+				Spot[] regionspots = regionspot(spotindex, motherspot, (int) frame, searchdistance, motherslope,
+						mariangle, mariprinciple);
 
-				}
+				for (Spot spot : regionspots) {
 
-				else {
+					if (trackmodel.trackIDOf(spot) != null) {
+						int regiontrackID = trackmodel.trackIDOf(spot);
+						Set<DefaultWeightedEdge> localtracks = trackmodel.trackEdges(regiontrackID);
 
-					if (motherspot.squareDistanceTo(spot) <= region * region) {
+						for (DefaultWeightedEdge localedge : localtracks) {
 
-						regionspots.add(spot, frame);
+							final Spot source = trackmodel.getEdgeSource(localedge);
 
-					}
+							if (source.getFeature(Spot.FRAME) == frame) {
+								final Spot target = trackmodel.getEdgeTarget(localedge);
+								final double linkcost = trackmodel.getEdgeWeight(localedge);
+
+								localgraph.addVertex(source);
+								localgraph.addVertex(target);
+								localgraph.addEdge(source, target);
+								localgraph.setEdgeWeight(localedge, linkcost);
+
+							}
+						}
 
+					}
 				}
 
 			}
-
-		return regionspots;
+		}
 	}
 
-	private static Pair<double[], double[]> getEigen(final Ellipsoid ellipsoid, int ndim) {
+	/**
+	 * Checks a link proposed by the local linker of a mother cell, against the
+	 * Mari principle if asked, and if it is kept adds it to the edits with the
+	 * links it replaces.
+	 */
+	private static void collectMotherLink(final TrackModel trackmodel, final ImagePlus imp, final Spot motherspot,
+			final double[] motherslope, final double[] largemotherslope, final Spot source, final Spot target,
+			final double cost, final double searchdistance, final boolean mariprinciple, final boolean addDisplay,
+			final ArrayList<Pair<Spot, Spot>> removeedges, final ArrayList<Pair<Spot, Spot>> addedges,
+			final ArrayList<Double> costlist) {
 
-		double[][] covariance = ellipsoid.getCovariance();
-		final EigenvalueDecomposition eig = new Matrix(covariance).eig();
-		final double[] Eigenvalues = eig.getRealEigenvalues();
-		final Matrix Eigenvector = eig.getV();
+		Set<DefaultWeightedEdge> targetlinks = trackmodel.edgesOf(target);
 
-		double smallesteigenval = Double.MAX_VALUE;
-		double largesteigenval = -Double.MAX_VALUE;
-		int index = -1;
-		int largeindex = -1;
-		for (int i = 0; i < Eigenvalues.length; ++i) {
+		boolean validlink = true;
+		if (mariprinciple)
+			validlink = false;
+	
+		Set<DefaultWeightedEdge> drawlinkslinks = trackmodel.edgesOf(source);
+
+		// Side of the long axis of the mother, from the sign of the cross product
+		final double motherx = motherspot.getDoublePosition(0);
+		final double mothery = motherspot.getDoublePosition(1);
+		final double daughtermotheraxis = largemotherslope[0] * (target.getDoublePosition(1) - mothery)
+				- largemotherslope[1] * (target.getDoublePosition(0) - motherx);
+
+		// The annotations are only recorded to be displayed
+		boolean annotated = false;
+		for (DefaultWeightedEdge targetedge : drawlinkslinks) {
+			Spot targetsource = trackmodel.getEdgeTarget(targetedge);
+
+			if (source.getDoublePosition(0) != targetsource.getDoublePosition(0)) {
+				final double daughtermotheraxisB = largemotherslope[0] * (targetsource.getDoublePosition(1) - mothery)
+						- largemotherslope[1] * (targetsource.getDoublePosition(0) - motherx);
+				final boolean oppositesides = Math.signum(daughtermotheraxisB) * Math.signum(daughtermotheraxis) < 0;
+
+				if (mariprinciple && oppositesides)
+					validlink = true;
+				if (addDisplay && (oppositesides || !mariprinciple)) {
+					final OneatOverlay oneatOverlay = OneatOverlay.forImage(imp);
+					if (!annotated)
+						oneatOverlay.add(motherspot, source, target, motherslope, largemotherslope);
+					annotated = true;
+					oneatOverlay.add(motherspot, source, targetsource, motherslope, largemotherslope);
+				}
 
-			if (Eigenvalues[i] < smallesteigenval) {
+			}
+		}
+	
+		if (validlink && cost < searchdistance * searchdistance /2) {
+			// Remove the targetsource and target edge prior to assingment
+			for (DefaultWeightedEdge targetedge : targetlinks) {
 
-				smallesteigenval = Eigenvalues[i];
-				index = i;
+				Spot targetsource = trackmodel.getEdgeSource(targetedge);
+				removeedges.add(new ValuePair<Spot, Spot>(targetsource, target));
 			}
 
-			if (Eigenvalues[i] > largesteigenval) {
+			for (DefaultWeightedEdge targetedge : drawlinkslinks) {
 
-				largesteigenval = Eigenvalues[i];
-				largeindex = i;
+				Spot targetsource = trackmodel.getEdgeSource(targetedge);
+				removeedges.add(new ValuePair<Spot, Spot>(targetsource, target));
 			}
+
+			addedges.add(new ValuePair<Spot, Spot>(source, target));
+			costlist.add(cost);
+		
 		}
+	}
 
-		double[] smallvec = new double[Eigenvalues.length];
-		double[] largevec = new double[Eigenvalues.length];
-		for (int i = 0; i < Eigenvector.getRowDimension(); ++i) {
+	/**
+	 * Returns the spots of a frame within the search region of the mother spot,
+	 * and if asked within the Mari angle of the mother axis.
+	 * <p>
+	 * The angle is tested on the cosine between the mother axis and the
+	 * mother-daughter direction, so that vertical axes and directions need no
+	 * special case. A 2D axis is tested in the XY plane, as the slope based test
+	 * did, a 3D axis in 3D.
+	 * 
+	 * @param spotindex     The grid index of all the spots
+	 * @param motherspot    The mother cell
+	 * @param frame         The frame to search for daughters
+	 * @param region        The search radius
+	 * @param motherslope   The short axis of the mother cell
+	 * @param mariangle     The Mari angle veto in degrees
+	 * @param mariprinciple Whether to apply the Mari principle
+	 * @return The candidate daughter spots
+	 */
+	private static Spot[] regionspot(final SpotGridIndex spotindex, final Spot motherspot, final int frame,
+			final double region, final double[] motherslope, final double mariangle, final boolean mariprinciple) {
 
-			smallvec[i] = Eigenvector.get(i, index);
-			largevec[i] = Eigenvector.get(i, largeindex);
-		}
+		final double[] position = SpotGridIndex.positionOf(motherspot);
+		if (!mariprinciple)
+			return spotindex.query(frame, position, region);
+
+		return spotindex.query(frame, position, region, motherslope, Math.cos(Math.toRadians(mariangle)));
+	}
+
+	private static Pair<double[], double[]> getEigen(final Ellipsoid ellipsoid, int ndim) {
 
-		return new ValuePair<double[], double[]>(smallvec, largevec);
+		final double[][] covariance = ellipsoid.getCovariance();
+		final double[] eigenvalues = new double[covariance.length];
+		final double[][] eigenvectors = new double[covariance.length][covariance.length];
+		SymmetricEigen.decompose(covariance, eigenvalues, eigenvectors);
+
+		// Eigenvalues are sorted in increasing order
+		return new ValuePair<double[], double[]>(eigenvectors[0], eigenvectors[covariance.length - 1]);
 
 	}
 
@@ -914,20 +1105,18 @@ public class TrackCorrectorRunner {
 		final double e = V.getEntry(4);
 		double[] Coefficents = V.toArray();
 
-		final double[][] aa = new double[][] { { a, c }, { c, b } };
-
-		final double[] bb = new double[] { d, e };
-		double det = new Matrix(aa).det();
+		// Quadratic form [ a, c; c, b ] and linear part [ d, e ], in closed form
+		final double det = a * b - c * c;
 
 		if (det > 1.0E-15) {
-			final double[] cc = new Matrix(aa).solve(new Matrix(bb, 2)).getRowPackedCopy();
-			LinAlgHelpers.scale(cc, -1, cc);
-			final double[] At = new double[2];
-			LinAlgHelpers.mult(aa, cc, At);
-			final double r33 = LinAlgHelpers.dot(cc, At) + 2 * LinAlgHelpers.dot(bb, cc) - 1;
-			LinAlgHelpers.scale(aa, -1 / r33, aa);
+			final double[] cc = new double[] { -(b * d - c * e) / det, -(a * e - c * d) / det };
+			final double r33 = a * cc[0] * cc[0] + 2 * c * cc[0] * cc[1] + b * cc[1] * cc[1]
+					+ 2 * (d * cc[0] + e * cc[1]) - 1;
+			final double scale = -1 / r33;
+			final double[][] aa = new double[][] { { scale * a, scale * c }, { scale * c, scale * b } };
+			final double[][] covariance = new double[][] { { b / (scale * det), -c / (scale * det) },
+					{ -c / (scale * det), a / (scale * det) } };
 			int n = cc.length;
-			double[][] covariance = new Matrix(aa).inverse().getArray();
 
 			return (new Ellipsoid(cc, covariance, aa, null, computeAxisAndRadiiFromCovariance(covariance, n),
 					Coefficents));
@@ -936,11 +1125,10 @@ public class TrackCorrectorRunner {
 	}
 
 	private static double[] computeAxisAndRadiiFromCovariance(double[][] covariance, int n) {
-		final EigenvalueDecomposition eig = new Matrix(covariance).eig();
-		final Matrix ev = eig.getD();
 		double[] radii = new double[n];
+		SymmetricEigen.decompose(covariance, radii, null);
 		for (int d = 0; d < n; ++d) {
-			radii[d] = Math.sqrt(ev.get(d, d));
+			radii[d] = Math.sqrt(radii[d]);
 		}
 		return radii;
 	}
@@ -958,7 +1146,30 @@ public class TrackCorrectorRunner {
 	public static <T extends NativeType<T>> Pair<HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>>, Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>>> getFirstTrackMateobject(
 			final Model model, final ImgPlus<T> img, final Logger logger, double[] calibration) {
 
-		Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots = getTMStartSplit(model);
+		return getFirstTrackMateobject(model, img, logger, calibration, Runtime.getRuntime().availableProcessors(),
+				null);
+	}
+
+	/**
+	 * 
+	 * @param model       The TrackMate model object
+	 * @param img         The integer labelled image
+	 * @param logger      TrackMate logger
+	 * @param calibration Image calibration
+	 * @param numThreads  The number of threads used to extract the track
+	 *                    topology
+	 * @param report      The report counting the tracks indexed as the items
+	 *                    done of the label index, or {@code null}
+	 * @return A HashMap of {@code <Segment Label, Frame>: <Spot, TrackID>} and
+	 *         Spot, A second HashMap of trackID + starting spot and trackID +
+	 *         list of dividing spots for that track
+	 */
+	public static <T extends NativeType<T>> Pair<HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>>, Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>>> getFirstTrackMateobject(
+			final Model model, final ImgPlus<T> img, final Logger logger, double[] calibration, final int numThreads,
+			final OneatRunReport report) {
+
+		Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots = getTMStartSplit(model,
+				numThreads);
 		int ndim = img.numDimensions() - 1;
 		RandomAccess<T> ranac = img.randomAccess();
 		Set<Integer> AllTrackIds = model.getTrackModel().trackIDs(true);
@@ -966,12 +1177,16 @@ public class TrackCorrectorRunner {
 
 		logger.flush();
 		logger.log("Collecting tracks, in total " + AllTrackIds.size() + ".\n");
+		if (report != null)
+			report.setTotal(Stage.LABEL_INDEX, AllTrackIds.size());
 		int count = 0;
 		for (int trackID : AllTrackIds) {
 
 			Set<Spot> trackspots = model.getTrackModel().trackSpots(trackID);
 
 			count++;
+			if (report != null)
+				report.advance(Stage.LABEL_INDEX, 1);
 			for (Spot spot : trackspots) {
 
 				logger.setProgress((float) (count) / (AllTrackIds.size() + 1));
@@ -1013,11 +1228,12 @@ public class TrackCorrectorRunner {
 
 	}
 
-	public static <T extends  NativeType<T>> HashMap<Integer, Pair<Spot, Spot>> getapoptosisTrackID(
+	public static <T extends NativeType<T>> HashMap<Integer, Pair<Spot, Spot>> getapoptosisTrackID(
 			HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
 			Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots, final Model model,
 			final ImgPlus<T> img, HashMap<Integer, ArrayList<Spot>> framespots,
-			final Map<String, Object> mapsettings, final Logger logger, final int numThreads, double[] calibration) {
+			final Map<String, Object> mapsettings, final Logger logger, final int numThreads, double[] calibration,
+			final OneatRunReport report) {
 
 		// Starting point of the tree + apoptotic spot in the trackID
 		HashMap<Integer, Pair<Spot, Spot>> Trackapoptosis = new HashMap<Integer, Pair<Spot, Spot>>();
@@ -1028,12 +1244,17 @@ public class TrackCorrectorRunner {
 
 		logger.log("Matching with oneat apoptosis spots.\n");
 		logger.setProgress(1.);
+		final Stage stage = Stage.APOPTOSIS_MATCH;
+		if (report != null)
+			report.setTotal(stage, countSpots(framespots));
 
 		int count = 0;
 		for (Map.Entry<Integer, ArrayList<Spot>> framemap : framespots.entrySet()) {
 
-			logger.setProgress(count / (framespots.entrySet().size() + 1));
+			logger.setProgress((double) count / (framespots.entrySet().size() + 1));
 			count++;
+			if (report != null)
+				report.advance(stage, framemap.getValue().size());
 			int frame = framemap.getKey();
 			if (frame < img.dimension(ndim) - 1) {
 
@@ -1102,7 +1323,8 @@ public class TrackCorrectorRunner {
 			HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
 			Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots, final Model model,
 			final ImgPlus<T> img, HashMap<Integer, ArrayList<Spot>> framespots,
-			final Map<String, Object> mapsettings, final Logger logger, final int numThreads, double[] calibration) {
+			final Map<String, Object> mapsettings, final Logger logger, final int numThreads, double[] calibration,
+			final OneatRunReport report) {
 
 		// Starting point of the tree + list of mitosis spots in the trackID
 		HashMap<Integer, Pair<Spot, ArrayList<Spot>>> Trackmitosis = new HashMap<Integer, Pair<Spot, ArrayList<Spot>>>();
@@ -1110,16 +1332,22 @@ public class TrackCorrectorRunner {
 
 		int ndim = img.numDimensions() - 1;
 		int tmoneatdeltat = (int) mapsettings.get(KEY_GAP_CLOSING_MAX_FRAME_GAP);
+		SplitFrameIndex splitindex = new SplitFrameIndex(DividingStartspots.getB());
 		RandomAccess<T> ranac = img.randomAccess();
 
 		logger.log("Matching with oneat mitosis spots.\n");
 		logger.setProgress(1.);
+		final Stage stage = Stage.MITOSIS_MATCH;
+		if (report != null)
+			report.setTotal(stage, countSpots(framespots));
 
 		int count = 0;
 		for (Map.Entry<Integer, ArrayList<Spot>> framemap : framespots.entrySet()) {
 
-			logger.setProgress(count / (framespots.entrySet().size() + 1));
+			logger.setProgress((double) count / (framespots.entrySet().size() + 1));
 			count++;
+			if (report != null)
+				report.advance(stage, framemap.getValue().size());
 			int frame = framemap.getKey();
 			if (frame < img.dimension(ndim) - 1) {
 
@@ -1164,8 +1392,8 @@ public class TrackCorrectorRunner {
 							Spot spot = spotandtrackID.getA();
 
 							int trackID = spotandtrackID.getB();
-							Pair<Boolean, Pair<Spot, Spot>> isDividingTMspot = isDividingTrack(DividingStartspots, spot,
-									trackID, tmoneatdeltat);
+							Pair<Boolean, Pair<Spot, Spot>> isDividingTMspot = isDividingTrack(DividingStartspots, splitindex,
+									spot, trackID, tmoneatdeltat);
 							Boolean isDividing = isDividingTMspot.getA();
 
 							// If isDividing is true oneat does not need to correct the track else it has to
@@ -1210,6 +1438,14 @@ public class TrackCorrectorRunner {
 		return Trackmitosis;
 	}
 
+	private static long countSpots(final HashMap<Integer, ArrayList<Spot>> framespots) {
+
+		long count = 0;
+		for (ArrayList<Spot> spots : framespots.values())
+			count += spots.size();
+		return count;
+	}
+
 	private static <T extends NativeType<T>> SimpleWeightedGraph<Spot, DefaultWeightedEdge> BreakLinksTrack(final Model model,
 			HashMap<Pair<Integer, Integer>, Pair<Spot, Integer>> uniquelabelID,
 			Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots,
@@ -1220,12 +1456,19 @@ public class TrackCorrectorRunner {
 		logger.log("Breaking links not found by oneat.\n");
 
 		HashMap<Integer, ArrayList<Spot>> Dividingspotlocations = DividingStartspots.getB();
+		SplitFrameIndex splitindex = new SplitFrameIndex(Dividingspotlocations);
 		int ndim = img.numDimensions() - 1;
 
+		// Dense bit index of the track IDs, so that track sets are plain bitsets
 		Set<Integer> AllTrackIds = model.getTrackModel().trackIDs(true);
+		int[] trackindex = new int[AllTrackIds.size()];
+		int nTracks = 0;
+		for (Integer trackID : AllTrackIds)
+			trackindex[nTracks++] = trackID;
+		Arrays.sort(trackindex);
 
 		RandomAccess<T> ranac = img.randomAccess();
-		ArrayList<Integer> DividingTrackids = new ArrayList<Integer>();
+		BitSet DividingTrackids = new BitSet(nTracks);
 		for (Map.Entry<Integer, ArrayList<Spot>> framemap : framespots.entrySet()) {
 
 			int frame = framemap.getKey();
@@ -1265,29 +1508,19 @@ public class TrackCorrectorRunner {
 
 						Spot spot = spotandtrackID.getA();
 						int trackID = spotandtrackID.getB();
-						Pair<Double, Spot> closestspotpair = closestSpot(spot, Dividingspotlocations.get(trackID));
-						double closestdistance = closestspotpair.getA();
-						Spot closestSpot = closestspotpair.getB();
+						int spotframe = spot.getFeature(Spot.FRAME).intValue();
+						Spot closestSpot = splitindex.closestSplit(trackID, spotframe);
 						// There could be a N frame gap at most between the TM detected dividing spot
 						// location and oneat found spot location
-						if (closestdistance > N && closestSpot != null) {
+						if (closestSpot != null && !splitindex.hasSplitWithin(trackID, spotframe, N + 1)) {
 
-							Set<DefaultWeightedEdge> e = model.getTrackModel().edgesOf(closestSpot);
+							removeLinks(model, graph, closestSpot);
 
-							Iterator<DefaultWeightedEdge> it = e.iterator();
-							while (it.hasNext()) {
-
-								DefaultWeightedEdge edge = it.next();
-								graph.getEdgeSource(edge);
-								graph.getEdgeTarget(edge);
-								DefaultWeightedEdge thisedge = graph.getEdge(graph.getEdgeSource(edge),
-										graph.getEdgeTarget(edge));
-								graph.removeEdge(thisedge);
-
-							}
-
-						} else
-							DividingTrackids.add(trackID);
+						} else {
+							int index = Arrays.binarySearch(trackindex, trackID);
+							if (index >= 0)
+								DividingTrackids.set(index);
+						}
 					}
 
 				}
@@ -1296,27 +1529,12 @@ public class TrackCorrectorRunner {
 
 		}
 
-		AllTrackIds.removeAll(DividingTrackids);
-		for (int trackID : AllTrackIds) {
-
-			ArrayList<Spot> badapple = Dividingspotlocations.get(trackID);
+		// Tracks without any verified division lose all their splits
+		for (int index = DividingTrackids.nextClearBit(0); index < nTracks; index = DividingTrackids
+				.nextClearBit(index + 1)) {
 
-			for (Spot removeapple : badapple) {
-
-				Set<DefaultWeightedEdge> e = model.getTrackModel().edgesOf(removeapple);
-
-				Iterator<DefaultWeightedEdge> it = e.iterator();
-				while (it.hasNext()) {
-
-					DefaultWeightedEdge edge = it.next();
-					graph.getEdgeSource(edge);
-					graph.getEdgeTarget(edge);
-					DefaultWeightedEdge thisedge = graph.getEdge(graph.getEdgeSource(edge), graph.getEdgeTarget(edge));
-					graph.removeEdge(thisedge);
-
-				}
-
-			}
+			for (Spot removeapple : splitindex.spotsOf(trackindex[index]))
+				removeLinks(model, graph, removeapple);
 
 		}
 		return graph;
@@ -1324,128 +1542,67 @@ public class TrackCorrectorRunner {
 	}
 
 	/**
-	 * 
-	 * @param spot
-	 * @param trackID
-	 * @param N
-	 * @param model
-	 * @return
+	 * Removes from the graph all the links the spot has in the model.
 	 */
+	private static void removeLinks(final Model model, final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph,
+			final Spot spot) {
 
-	private static Pair<Boolean, Pair<Spot, Spot>> isDividingTrack(
-			final Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots, final Spot spot,
-			final int trackID, final int N) {
+		TrackModel trackmodel = model.getTrackModel();
+		for (DefaultWeightedEdge edge : trackmodel.edgesOf(spot))
+			graph.removeEdge(trackmodel.getEdgeSource(edge), trackmodel.getEdgeTarget(edge));
+	}
 
-		Boolean isDividing = false;
+	/**
+	 * 
+	 * @param DividingStartspots A pair of HashMap of Track ID with starting Spot
+	 *                           and a list of dividing spots for this ID
+	 * @param splitindex         The frame sorted index of the same dividing
+	 *                           spots
+	 * @param spot               The TrackMate spot matched to the oneat event
+	 * @param trackID            The track of the spot
+	 * @param N                  The allowed frame gap between the oneat event
+	 *                           and a TrackMate split
+	 * @return If the track divides within N frames of the spot, with the
+	 *         starting spot and the closest split of the track
+	 */
 
-		Spot closestSpot = null;
+	private static Pair<Boolean, Pair<Spot, Spot>> isDividingTrack(
+			final Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> DividingStartspots,
+			final SplitFrameIndex splitindex, final Spot spot, final int trackID, final int N) {
 
-		ArrayList<Spot> Dividingspotlocations = DividingStartspots.getB().get(trackID);
 		Spot startingspot = DividingStartspots.getA().get(trackID);
+		int frame = spot.getFeature(Spot.FRAME).intValue();
 
-		Pair<Double, Spot> closestspotpair = closestSpot(spot, Dividingspotlocations);
-		double closestdistance = closestspotpair.getA();
-		closestSpot = closestspotpair.getB();
 		// There could be a N frame gap at most between the TM detected dividing spot
 		// location and oneat found spot location
-		if (closestdistance < N)
-			isDividing = true;
+		Boolean isDividing = splitindex.hasSplitWithin(trackID, frame, N);
+		Spot closestSpot = splitindex.closestSplit(trackID, frame);
 
 		return new ValuePair<Boolean, Pair<Spot, Spot>>(isDividing,
 				new ValuePair<Spot, Spot>(startingspot, closestSpot));
 	}
 
-	private static Pair<Double, Spot> closestSpot(final Spot targetspot, final ArrayList<Spot> Dividingspotlocations) {
-
-		double mintimeDistance = Double.MAX_VALUE;
-		Spot closestsourcespot = null;
-
-		for (Spot sourcespot : Dividingspotlocations) {
-
-			final double dist = sourcespot.diffTo(targetspot, Spot.FRAME);
-
-			if (dist <= mintimeDistance) {
-
-				mintimeDistance = dist;
-				closestsourcespot = sourcespot;
-			}
-
-		}
-
-		Pair<Double, Spot> closestspotpair = new ValuePair<Double, Spot>(Math.abs(mintimeDistance), closestsourcespot);
-
-		return closestspotpair;
-
-	}
-
 	/**
 	 * 
 	 * @param model TrackMate Model
 	 * @return Pair of HashMap <TrackID, TrackStartSpot> and <TrackID, List of
 	 *         dividing Spots in that track>
 	 */
-	private static Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> getTMStartSplit(final Model model) {
+	private static Pair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>> getTMStartSplit(final Model model,
+			final int numThreads) {
 
-		HashMap<Integer, ArrayList<Spot>> Dividingspots = new HashMap<Integer, ArrayList<Spot>>();
-		HashMap<Integer, Spot> Startingspots = new HashMap<Integer, Spot>();
 		TrackModel trackmodel = model.getTrackModel();
+		Set<Integer> trackIDs = trackmodel.trackIDs(true);
 
-		for (final Integer trackID : trackmodel.trackIDs(true)) {
-
-			final Set<DefaultWeightedEdge> track = trackmodel.trackEdges(trackID);
-			ArrayList<Pair<Integer, Spot>> Sources = new ArrayList<Pair<Integer, Spot>>();
-			ArrayList<Pair<Integer, Spot>> Targets = new ArrayList<Pair<Integer, Spot>>();
-			ArrayList<Integer> SourcesID = new ArrayList<Integer>();
-			ArrayList<Integer> TargetsID = new ArrayList<Integer>();
-
-			Spot Starts = null;
+		// Each track is independent, extract them concurrently
+		Map<Integer, TrackTopology> topologies = TrackTopology.extract(trackmodel, trackIDs, numThreads);
 
-			ArrayList<Spot> Splits = new ArrayList<Spot>();
-
-			for (final DefaultWeightedEdge e : track) {
-
-				Spot Spotbase = trackmodel.getEdgeSource(e);
-				Spot Spottarget = trackmodel.getEdgeTarget(e);
-
-				Integer targetID = Spottarget.ID();
-				Integer sourceID = Spotbase.ID();
-				Sources.add(new ValuePair<Integer, Spot>(sourceID, Spotbase));
-				Targets.add(new ValuePair<Integer, Spot>(targetID, Spottarget));
-				SourcesID.add(sourceID);
-				TargetsID.add(targetID);
-
-			}
-
-			// find track start
-			for (Pair<Integer, Spot> sid : Sources) {
-
-				if (!TargetsID.contains(sid.getA())) {
-
-					Starts = sid.getB();
-
-				}
-
-			}
-
-			// find track splits
-			int scount = 0;
-			for (Pair<Integer, Spot> sid : Sources) {
-
-				for (Pair<Integer, Spot> dupsid : Sources) {
-
-					if (dupsid.getA().intValue() == sid.getA().intValue()) {
-						scount++;
-					}
-				}
-				if (scount > 1) {
-					Splits.add(sid.getB());
-				}
-				scount = 0;
-			}
-
-			Startingspots.put(trackID, Starts);
-			Dividingspots.put(trackID, Splits);
+		HashMap<Integer, ArrayList<Spot>> Dividingspots = new HashMap<Integer, ArrayList<Spot>>(2 * trackIDs.size());
+		HashMap<Integer, Spot> Startingspots = new HashMap<Integer, Spot>(2 * trackIDs.size());
+		for (Map.Entry<Integer, TrackTopology> topology : topologies.entrySet()) {
 
+			Startingspots.put(topology.getKey(), topology.getValue().start);
+			Dividingspots.put(topology.getKey(), topology.getValue().splits);
 		}
 
 		return new ValuePair<HashMap<Integer, Spot>, HashMap<Integer, ArrayList<Spot>>>(Startingspots, Dividingspots);
@@ -1498,7 +1655,11 @@ public class TrackCorrectorRunner {
 	}
 	
 	
-	public static Pair<ArrayList<Oneatobject>, HashMap<Integer, ArrayList<Oneatobject>>> get_action_spots(final File oneatactionfile, final Logger logger, final double[] calibration, double probthreshold) {
+	/**
+	 * Reads the oneat events of a csv file, with the events read and kept
+	 * counted in the report if there is one.
+	 */
+	public static Pair<ArrayList<Oneatobject>, HashMap<Integer, ArrayList<Oneatobject>>> get_action_spots(final File oneatactionfile, final Logger logger, final double[] calibration, double probthreshold, final OneatRunReport report) {
 		
 		String line = "";
 		String cvsSplitBy = ",";
@@ -1516,6 +1677,8 @@ public class TrackCorrectorRunner {
 
 				if (count > 0) {
 
+					if (report != null)
+						report.add(Counter.EVENTS_READ, 1);
 					if(divisionspotsfile.length > 4) { 
 					int time = (int) Double.parseDouble(divisionspotsfile[0]);
 					double Z = Double.parseDouble(divisionspotsfile[1]) * calibration[2];
@@ -1534,6 +1697,8 @@ public class TrackCorrectorRunner {
 						} else
 							ActionMap.put(time, ActionSpots);
 						ActionSpots.add(Spot);
+						if (report != null)
+							report.add(Counter.EVENTS_KEPT, 1);
 						
 						count = count + 1;
 					}
@@ -1560,6 +1725,8 @@ public class TrackCorrectorRunner {
 							} else
 								ActionMap.put(time, ActionSpots);
 							ActionSpots.add(Spot);
+							if (report != null)
+								report.add(Counter.EVENTS_KEPT, 1);
 							count = count + 1;
 						}
 						
@@ -1593,6 +1760,8 @@ public class TrackCorrectorRunner {
 	 * @param logger             TrackMate logger to log the number of found events
 	 * @param ndims              The image dimensions
 	 * @param calibration        The image calibration
+	 * @param report             The report counting the events read and kept,
+	 *                           or {@code null}
 	 * @return SpotCollection and HashMap of {@code <frame, SpotList>} for
 	 *         mitosis/cell death
 	 */
@@ -1602,7 +1771,7 @@ public class TrackCorrectorRunner {
 	
 	public static Pair<Pair<SpotCollection, HashMap<Integer, ArrayList<Spot>>>, Pair<SpotCollection, HashMap<Integer, ArrayList<Spot>>>> run(
 			final File oneatdivisionfile, final File oneatapoptosisfile, Map<String, Object> settings,
-			final Logger logger, final int ndims, final double[] calibration) {
+			final Logger logger, final int ndims, final double[] calibration, final OneatRunReport report) {
 
 		SpotCollection divisionspots = new SpotCollection();
 		HashMap<Integer, ArrayList<Spot>> DivisionSpotListFrame = new HashMap<Integer, ArrayList<Spot>>();
@@ -1613,7 +1782,7 @@ public class TrackCorrectorRunner {
 		double probthreshold = (double) settings.get(KEY_PROB_THRESHOLD);
 
 		if (oneatdivisionfile != null) {
-			Pair<ArrayList<Oneatobject>, HashMap<Integer, ArrayList<Oneatobject>>> mitosisobject   =  get_action_spots(oneatdivisionfile, logger, calibration, probthreshold);
+			Pair<ArrayList<Oneatobject>, HashMap<Integer, ArrayList<Oneatobject>>> mitosisobject   =  get_action_spots(oneatdivisionfile, logger, calibration, probthreshold, report);
             
 			DivisionSpots = mitosisobject.getA();
 			DivisionMap = mitosisobject.getB();	
@@ -1632,7 +1801,7 @@ public class TrackCorrectorRunner {
 		HashMap<Integer, ArrayList<Oneatobject>> ApoptosisMap = new HashMap<Integer, ArrayList<Oneatobject>>();
 		if (oneatapoptosisfile != null) {
 			
-            Pair<ArrayList<Oneatobject>, HashMap<Integer, ArrayList<Oneatobject>>> apoptosisobject =  get_action_spots(oneatapoptosisfile, logger, calibration, probthreshold);
+            Pair<ArrayList<Oneatobject>, HashMap<Integer, ArrayList<Oneatobject>>> apoptosisobject =  get_action_spots(oneatapoptosisfile, logger, calibration, probthreshold, report);
             
 			ApoptosisSpots = apoptosisobject.getA();
 			ApoptosisMap = apoptosisobject.getB();	
@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * Recomputes the track features of a subset of tracks after a correction.
+ * <p>
+ * The local track analyzers only see the tracks whose topology changed. They
+ * run one after another, each with all the threads, as in
+ * {@code TrackMate.computeTrackFeatures}: the feature model is not meant to
+ * be written by several analyzers at once. The features of the other tracks
+ * are left as they are in the feature model. The global analyzers (for
+ * instance the track index) need the whole model and run afterwards on all
+ * the tracks.
+ */
+public class TrackFeatureUpdater implements MultiThreaded {
+
+	private final Model model;
+
+	private final Settings settings;
+
+	private final Logger logger;
+
+	private int numThreads;
+
+	private long processingTime;
+
+	public TrackFeatureUpdater(final Model model, final Settings settings, final Logger logger) {
+
+		this.model = model;
+
+		this.settings = settings;
+
+		this.logger = logger;
+
+		setNumThreads();
+	}
+
+	/**
+	 * Computes the track features of the specified tracks.
+	 * 
+	 * @param trackIDs the IDs of the tracks to update
+	 * @return true if all the analyzers ran without error and the thread was
+	 *         not interrupted
+	 */
+	public boolean process(final Collection<Integer> trackIDs) {
+
+		final long start = System.currentTimeMillis();
+		if (trackIDs.isEmpty()) {
+			processingTime = 0;
+			return true;
+		}
+
+		final List<TrackAnalyzer> localanalyzers = new ArrayList<TrackAnalyzer>();
+		final List<TrackAnalyzer> globalanalyzers = new ArrayList<TrackAnalyzer>();
+		for (final TrackAnalyzer analyzer : settings.getTrackAnalyzers()) {
+
+			if (analyzer.isLocal())
+				localanalyzers.add(analyzer);
+			else
+				globalanalyzers.add(analyzer);
+		}
+
+		logger.log("Computing track features for " + trackIDs.size() + " corrected tracks.\n");
+		boolean ok = true;
+		for (final TrackAnalyzer analyzer : localanalyzers) {
+
+			if (Thread.currentThread().isInterrupted()) {
+				ok = false;
+				break;
+			}
+			analyzer.setNumThreads(numThreads);
+			try {
+				analyzer.process(trackIDs, model);
+			} catch (RuntimeException e) {
+				logger.error("Track feature computation failed: " + e + "\n");
+				ok = false;
+			}
+		}
+
+		if (!globalanalyzers.isEmpty()) {
+
+			final Collection<Integer> alltrackIDs = model.getTrackModel().trackIDs(false);
+			for (final TrackAnalyzer analyzer : globalanalyzers) {
+
+				analyzer.setNumThreads(numThreads);
+				analyzer.process(alltrackIDs, model);
+			}
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return ok;
+	}
+
+	public long getProcessingTime() {
+		return processingTime;
+	}
+
+	@Override
+	public void setNumThreads() {
+
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(int numThreads) {
+
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads() {
+
+		return numThreads;
+	}
+
+}
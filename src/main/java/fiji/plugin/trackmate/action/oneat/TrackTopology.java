@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * The topology of a single track: its root, its split points and its ends,
+ * as seen from the direction of the edges of the track model.
+ */
+public class TrackTopology {
+
+	public final int trackID;
+
+	/**
+	 * The spot that is never the target of an edge, the root of the lineage
+	 * tree.
+	 */
+	public final Spot start;
+
+	/**
+	 * The spots that are the source of more than one edge, in the order they
+	 * were found.
+	 */
+	public final ArrayList<Spot> splits;
+
+	/**
+	 * The spots that are never the source of an edge.
+	 */
+	public final ArrayList<Spot> ends;
+
+	public TrackTopology(final int trackID, final Spot start, final ArrayList<Spot> splits,
+			final ArrayList<Spot> ends) {
+
+		this.trackID = trackID;
+
+		this.start = start;
+
+		this.splits = splits;
+
+		this.ends = ends;
+	}
+
+	/**
+	 * Extracts the topology of one track in a single pass over its edges.
+	 * 
+	 * @param trackmodel The TrackMate track model
+	 * @param trackID    The track to inspect
+	 * @return the topology of the track
+	 */
+	public static TrackTopology of(final TrackModel trackmodel, final Integer trackID) {
+
+		final Set<DefaultWeightedEdge> track = trackmodel.trackEdges(trackID);
+		final HashMap<Spot, Integer> outdegree = new HashMap<Spot, Integer>(2 * track.size());
+		final HashSet<Spot> targets = new HashSet<Spot>(2 * track.size());
+		final ArrayList<Spot> sources = new ArrayList<Spot>(track.size());
+
+		for (final DefaultWeightedEdge e : track) {
+
+			final Spot source = trackmodel.getEdgeSource(e);
+			final Spot target = trackmodel.getEdgeTarget(e);
+			final Integer degree = outdegree.get(source);
+			outdegree.put(source, degree == null ? 1 : degree + 1);
+			targets.add(target);
+			sources.add(source);
+		}
+
+		Spot start = null;
+		final ArrayList<Spot> splits = new ArrayList<Spot>();
+		final HashSet<Spot> seensplits = new HashSet<Spot>();
+		for (final Spot source : sources) {
+
+			if (!targets.contains(source))
+				start = source;
+			if (outdegree.get(source) > 1 && seensplits.add(source))
+				splits.add(source);
+		}
+
+		final ArrayList<Spot> ends = new ArrayList<Spot>();
+		for (final Spot target : targets)
+			if (!outdegree.containsKey(target))
+				ends.add(target);
+
+		return new TrackTopology(trackID, start, splits, ends);
+	}
+
+	/**
+	 * Extracts the topology of all the specified tracks concurrently. Tracks
+	 * are independent, so each one is processed by a single task, and the
+	 * tasks are balanced by the number of edges they have to visit.
+	 * 
+	 * @param trackmodel The TrackMate track model
+	 * @param trackIDs   The tracks to inspect
+	 * @param numThreads The number of threads to use
+	 * @return A map of track ID to topology
+	 */
+	public static Map<Integer, TrackTopology> extract(final TrackModel trackmodel, final Collection<Integer> trackIDs,
+			final int numThreads) {
+
+		final Map<Integer, TrackTopology> topologies = new ConcurrentHashMap<Integer, TrackTopology>(
+				2 * trackIDs.size());
+		final List<List<Integer>> partitions = partitionByEdgeCount(trackmodel, trackIDs, 4 * numThreads);
+
+		final ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(partitions.size());
+		for (final List<Integer> partition : partitions) {
+
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (final Integer trackID : partition)
+						topologies.put(trackID, of(trackmodel, trackID));
+					return null;
+				}
+			});
+		}
+
+		final ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+		try {
+			for (final Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		return topologies;
+	}
+
+	/**
+	 * Splits the tracks in at most nParts groups of similar total edge count,
+	 * assigning the largest tracks first to the lightest group.
+	 * 
+	 * @param trackmodel The TrackMate track model
+	 * @param trackIDs   The tracks to partition
+	 * @param nParts     The maximal number of groups
+	 * @return The groups of track IDs
+	 */
+	public static List<List<Integer>> partitionByEdgeCount(final TrackModel trackmodel,
+			final Collection<Integer> trackIDs, final int nParts) {
+
+		final int ntracks = trackIDs.size();
+		final Integer[] sorted = trackIDs.toArray(new Integer[ntracks]);
+		final int[] edgecount = new int[ntracks];
+		final HashMap<Integer, Integer> sizes = new HashMap<Integer, Integer>(2 * ntracks);
+		for (final Integer trackID : sorted)
+			sizes.put(trackID, trackmodel.trackEdges(trackID).size());
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Integer.compare(sizes.get(b), sizes.get(a));
+			}
+		});
+		for (int i = 0; i < ntracks; ++i)
+			edgecount[i] = sizes.get(sorted[i]);
+
+		final int nbins = Math.max(1, Math.min(nParts, ntracks));
+		final List<List<Integer>> partitions = new ArrayList<List<Integer>>(nbins);
+		final long[] load = new long[nbins];
+		for (int b = 0; b < nbins; ++b)
+			partitions.add(new ArrayList<Integer>(ntracks / nbins + 1));
+
+		for (int i = 0; i < ntracks; ++i) {
+
+			int lightest = 0;
+			for (int b = 1; b < nbins; ++b)
+				if (load[b] < load[lightest])
+					lightest = b;
+			partitions.get(lightest).add(sorted[i]);
+			// Count the track itself, so empty tracks still spread out
+			load[lightest] += edgecount[i] + 1;
+		}
+
+		return partitions;
+	}
+
+}
@@ -0,0 +1,44 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of one stage of the oneat track correction, begun and
+ * committed by the {@link OneatRunReport.Timer} of the stage. The LAP solves
+ * emit one event each.
+ */
+@Name( "fiji.plugin.trackmate.oneat.CorrectionStage" )
+@Label( "Correction Stage" )
+@Category( { "TrackMate", "Oneat" } )
+@Description( "A stage of the oneat track correction." )
+final class CorrectionStageEvent extends Event
+{
+
+	@Label( "Stage" )
+	String stage;
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+/**
+ * The {@link OneatEvents} of a JVM with a flight recorder, loaded by name.
+ */
+final class FlightRecorderEvents extends OneatEvents
+{
+
+	@Override
+	Object beginStage()
+	{
+		final CorrectionStageEvent event = new CorrectionStageEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	void commitStage( final Object event, final String stage )
+	{
+		final CorrectionStageEvent e = ( CorrectionStageEvent ) event;
+		if ( e.shouldCommit() )
+		{
+			e.stage = stage;
+			e.commit();
+		}
+	}
+
+	@Override
+	Object beginLinkCreation()
+	{
+		final LinkCreationEvent event = new LinkCreationEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	void commitLinkCreation( final Object event, final int trackID, final int frame, final int mothers, final int candidates, final int lapSources, final int lapTargets, final int linksAdded )
+	{
+		final LinkCreationEvent e = ( LinkCreationEvent ) event;
+		if ( e.shouldCommit() )
+		{
+			e.trackID = trackID;
+			e.frame = frame;
+			e.mothers = mothers;
+			e.candidates = candidates;
+			e.lapSources = lapSources;
+			e.lapTargets = lapTargets;
+			e.linksAdded = linksAdded;
+			e.commit();
+		}
+	}
+
+	@Override
+	Object beginModelCommit()
+	{
+		final ModelCommitEvent event = new ModelCommitEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	void commitModelCommit( final Object event, final int edgesRemoved, final int edgesAdded, final int tracksAffected )
+	{
+		final ModelCommitEvent e = ( ModelCommitEvent ) event;
+		if ( e.shouldCommit() )
+		{
+			e.edgesRemoved = edgesRemoved;
+			e.edgesAdded = edgesAdded;
+			e.tracksAffected = tracksAffected;
+			e.commit();
+		}
+	}
+}
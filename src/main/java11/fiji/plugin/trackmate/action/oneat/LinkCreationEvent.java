@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of one task of the link creation: a mother cell of a
+ * track, or all the mother cells of a frame.
+ */
+@Name( "fiji.plugin.trackmate.oneat.LinkCreation" )
+@Label( "Link Creation Task" )
+@Category( { "TrackMate", "Oneat" } )
+@Description( "The local linking of the mother cells of one task of the link creation." )
+final class LinkCreationEvent extends Event
+{
+
+	@Label( "Track ID" )
+	@Description( "The track of the mother cell, -1 for a task over a frame." )
+	int trackID;
+
+	@Label( "Frame" )
+	int frame;
+
+	@Label( "Mothers" )
+	int mothers;
+
+	@Label( "Candidates" )
+	@Description( "Spots in the neighbourhood graph of the mother cells." )
+	int candidates;
+
+	@Label( "LAP Sources" )
+	int lapSources;
+
+	@Label( "LAP Targets" )
+	int lapTargets;
+
+	@Label( "Links Added" )
+	int linksAdded;
+}
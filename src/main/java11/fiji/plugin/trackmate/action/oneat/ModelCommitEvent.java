@@ -0,0 +1,49 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of the application of the corrected graph to the
+ * model.
+ */
+@Name( "fiji.plugin.trackmate.oneat.ModelCommit" )
+@Label( "Model Commit" )
+@Category( { "TrackMate", "Oneat" } )
+@Description( "The edge edits of the oneat track correction applied to the model." )
+final class ModelCommitEvent extends Event
+{
+
+	@Label( "Edges Removed" )
+	int edgesRemoved;
+
+	@Label( "Edges Added" )
+	int edgesAdded;
+
+	@Label( "Tracks Affected" )
+	int tracksAffected;
+}
@@ -0,0 +1,501 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.CostMatrixCreator;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.LAPJV;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
+
+/**
+ * Checks {@link JaqamanLAP} and {@link LocalJaqamanLinker} against TrackMate's
+ * {@link LAPJV} on the explicit block matrix of Jaqaman <i>et al.</i>, built
+ * by {@link SparseLinkCosts#toBlockMatrix(double[], double[], double)}: both
+ * must find an assignment of the same total cost.
+ */
+public class JaqamanLAPTest
+{
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static final int CASES = 200;
+
+	private static final int SIZE = 12;
+
+	/**
+	 * The kinds of random problems.
+	 */
+	private enum Kind
+	{
+		RANDOM, EMPTY_ROWS, EMPTY_COLUMNS, NO_LINKS, SINGLE_ROW, SINGLE_COLUMN, ONE_BY_ONE, ALL_EQUAL, ALTERNATIVES_BELOW, ALTERNATIVES_ABOVE;
+	}
+
+	@Test
+	public void testJaqamanLAPMatchesLAPJV()
+	{
+		final Random random = new Random( 1 );
+		for ( final Kind kind : Kind.values() )
+		{
+			for ( int c = 0; c < CASES; c++ )
+			{
+				final Problem problem = Problem.random( random, kind );
+				final String name = kind + " #" + c + " " + problem;
+
+				final JaqamanLAP solver = new JaqamanLAP( problem.links, problem.rowAlternativeCosts, problem.colAlternativeCosts, problem.minCost() );
+				assertTrue( name + ": " + solver.getErrorMessage(), solver.checkInput() && solver.process() );
+				final int[] assignment = solver.getResult();
+				final double[] costs = solver.getAssignmentCosts();
+				for ( int i = 0; i < assignment.length; i++ )
+					if ( assignment[ i ] >= 0 )
+						assertEquals( name + ", cost of row " + i, problem.links.get( i, assignment[ i ], Double.NaN ), costs[ i ], 0. );
+					else
+						assertTrue( name + ", cost of unlinked row " + i, Double.isNaN( costs[ i ] ) );
+
+				assertEquals( name, lapjvCost( name, problem ), problem.totalCost( name, assignment ), TOLERANCE * Math.max( 1., Math.abs( lapjvCost( name, problem ) ) ) );
+			}
+		}
+	}
+
+	@Test
+	public void testLinkerMatchesLAPJV()
+	{
+		final Random random = new Random( 2 );
+		for ( int c = 0; c < CASES; c++ )
+		{
+			final Problem problem = Problem.components( random );
+			final double expected = lapjvCost( "components #" + c, problem );
+			for ( final boolean useLAPJV : new boolean[] { false, true } )
+			{
+				for ( final int numThreads : new int[] { 1, 4 } )
+				{
+					for ( final boolean provider : new boolean[] { false, true } )
+					{
+						final String name = "components #" + c + " " + problem + ", LAPJV " + useLAPJV + ", " + numThreads + " threads, provider " + provider;
+						final LocalJaqamanLinker< Integer, Integer > linker = new LocalJaqamanLinker<>( provider ? new ProviderCostMatrix( problem ) : new TestCostMatrix( problem ), Logger.VOID_LOGGER );
+						linker.setUseLAPJV( useLAPJV );
+						linker.setNumThreads( numThreads );
+						assertTrue( name + ": " + linker.getErrorMessage(), linker.checkInput() && linker.process() );
+						final int[] assignment = linker.getAssignment();
+						final double[] costs = linker.getCosts();
+						for ( int i = 0; i < assignment.length; i++ )
+							if ( assignment[ i ] >= 0 )
+								assertEquals( name + ", cost of row " + i, problem.links.get( i, assignment[ i ], Double.NaN ), costs[ i ], 0. );
+						assertEquals( name, expected, problem.totalCost( name, assignment ), TOLERANCE * Math.max( 1., Math.abs( expected ) ) );
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testConnectedComponents()
+	{
+		// Rows 0 and 2 share column 1, row 1 is alone with column 2, row 3
+		// and column 0 have no link.
+		final SparseLinkCosts links = SparseLinkCosts.fromTriplets( 4, 4,
+				new int[] { 0, 2, 2, 1 },
+				new int[] { 1, 1, 3, 2 },
+				new double[] { 1., 2., 3., 4. }, 4 );
+		final int[] rowComponent = new int[ 4 ];
+		final int[] colComponent = new int[ 4 ];
+		assertEquals( 4, links.connectedComponents( rowComponent, colComponent ) );
+		assertArrayEquals( new int[] { 0, 1, 0, 2 }, rowComponent );
+		assertArrayEquals( new int[] { 3, 0, 1, 0 }, colComponent );
+
+		final SparseLinkCosts sub = links.subMatrix( new int[] { 0, 2 }, new int[] { 1, 3 } );
+		assertEquals( 2, sub.getNRows() );
+		assertEquals( 2, sub.getNCols() );
+		assertEquals( 1., sub.get( 0, 0, Double.NaN ), 0. );
+		assertTrue( Double.isNaN( sub.get( 0, 1, Double.NaN ) ) );
+		assertEquals( 2., sub.get( 1, 0, Double.NaN ), 0. );
+		assertEquals( 3., sub.get( 1, 1, Double.NaN ), 0. );
+	}
+
+	@Test
+	public void testBlockMatrix()
+	{
+		final SparseLinkCosts links = SparseLinkCosts.fromTriplets( 2, 3,
+				new int[] { 0, 1, 0 },
+				new int[] { 2, 0, 0 },
+				new double[] { 1., 2., 3. }, 3 );
+		final SparseCostMatrix block = links.toBlockMatrix( new double[] { 10., 11. }, new double[] { 20., 21., 22. }, 5. );
+		assertEquals( 5, block.getNRows() );
+		assertEquals( 5, block.getNCols() );
+		final double x = Double.NaN;
+		final double[][] expected = new double[][] {
+				{ 3., x, 1., 10., x },
+				{ 2., x, x, x, 11. },
+				{ 20., x, x, 5., 5. },
+				{ x, 21., x, x, x },
+				{ x, x, 22., 5., x } };
+		for ( int r = 0; r < 5; r++ )
+			for ( int k = 0; k < 5; k++ )
+				assertEquals( "(" + r + ", " + k + ")", expected[ r ][ k ], block.get( r, k, Double.NaN ), 0. );
+	}
+
+	/**
+	 * Solves the block matrix of the problem with {@link LAPJV} and returns the
+	 * total cost of its assignment.
+	 */
+	private static double lapjvCost( final String name, final Problem problem )
+	{
+		final SparseCostMatrix block = problem.links.toBlockMatrix( problem.rowAlternativeCosts, problem.colAlternativeCosts, problem.minCost() );
+		final LAPJV lapjv = new LAPJV( block );
+		assertTrue( name + ": " + lapjv.getErrorMessage(), lapjv.checkInput() && lapjv.process() );
+		final int[] assignment = lapjv.getResult();
+		double cost = 0;
+		for ( int r = 0; r < assignment.length; r++ )
+		{
+			final double c = block.get( r, assignment[ r ], Double.NaN );
+			assertFalse( name + ": LAPJV assigns block row " + r + " to a missing cost", Double.isNaN( c ) );
+			cost += c;
+		}
+		return cost;
+	}
+
+	/**
+	 * A linking problem: the links and the alternative costs of the rows and
+	 * columns. The bottom right cost of the block matrix is the smallest
+	 * alternative cost, as in {@link LocalJaqamanLinker}.
+	 */
+	private static final class Problem
+	{
+
+		private final SparseLinkCosts links;
+
+		private final double[] rowAlternativeCosts;
+
+		private final double[] colAlternativeCosts;
+
+		private Problem( final SparseLinkCosts links, final double[] rowAlternativeCosts, final double[] colAlternativeCosts )
+		{
+			this.links = links;
+			this.rowAlternativeCosts = rowAlternativeCosts;
+			this.colAlternativeCosts = colAlternativeCosts;
+		}
+
+		private double minCost()
+		{
+			double min = Double.POSITIVE_INFINITY;
+			for ( final double cost : rowAlternativeCosts )
+				min = Math.min( min, cost );
+			for ( final double cost : colAlternativeCosts )
+				min = Math.min( min, cost );
+			return min;
+		}
+
+		/**
+		 * Returns the cost of an assignment in the block matrix: its links,
+		 * one bottom right cost per link, and the alternative costs of the
+		 * rows and columns left unlinked. Fails if the assignment is invalid.
+		 */
+		private double totalCost( final String name, final int[] assignment )
+		{
+			final double minCost = minCost();
+			final boolean[] linked = new boolean[ links.getNCols() ];
+			double total = 0;
+			for ( int i = 0; i < assignment.length; i++ )
+			{
+				final int j = assignment[ i ];
+				if ( j < 0 )
+				{
+					total += rowAlternativeCosts[ i ];
+					continue;
+				}
+				final double cost = links.get( i, j, Double.NaN );
+				assertFalse( name + ": row " + i + " assigned to column " + j + " without a link", Double.isNaN( cost ) );
+				assertFalse( name + ": column " + j + " assigned twice", linked[ j ] );
+				linked[ j ] = true;
+				total += cost + minCost;
+			}
+			for ( int j = 0; j < linked.length; j++ )
+				if ( !linked[ j ] )
+					total += colAlternativeCosts[ j ];
+			return total;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "(" + links.getNRows() + "x" + links.getNCols() + ", " + links.start[ links.getNRows() ] + " links)";
+		}
+
+		/**
+		 * A rectangular problem of the specified kind. Integer costs in the
+		 * random problems, so that there are ties.
+		 */
+		private static Problem random( final Random random, final Kind kind )
+		{
+			final int nRows = ( kind == Kind.SINGLE_ROW || kind == Kind.ONE_BY_ONE ) ? 1 : 1 + random.nextInt( SIZE );
+			final int nCols = ( kind == Kind.SINGLE_COLUMN || kind == Kind.ONE_BY_ONE ) ? 1 : 1 + random.nextInt( SIZE );
+			final double density = kind == Kind.NO_LINKS ? 0 : 0.1 + 0.9 * random.nextDouble();
+
+			final Triplets triplets = new Triplets( nRows * nCols );
+			for ( int i = 0; i < nRows; i++ )
+			{
+				if ( kind == Kind.EMPTY_ROWS && i % 3 == 0 )
+					continue;
+				for ( int j = 0; j < nCols; j++ )
+				{
+					if ( kind == Kind.EMPTY_COLUMNS && j % 3 == 0 )
+						continue;
+					if ( random.nextDouble() < density )
+						triplets.add( i, j, linkCost( random, kind ) );
+				}
+			}
+
+			final double[] rowAlternativeCosts = new double[ nRows ];
+			for ( int i = 0; i < nRows; i++ )
+				rowAlternativeCosts[ i ] = alternativeCost( random, kind );
+			final double[] colAlternativeCosts = new double[ nCols ];
+			for ( int j = 0; j < nCols; j++ )
+				colAlternativeCosts[ j ] = alternativeCost( random, kind );
+			return new Problem( triplets.toLinks( nRows, nCols ), rowAlternativeCosts, colAlternativeCosts );
+		}
+
+		/**
+		 * A problem made of several rectangular blocks whose rows and columns
+		 * are shuffled, with some rows and columns left without links, so that
+		 * it splits into several components.
+		 */
+		private static Problem components( final Random random )
+		{
+			final int nBlocks = 2 + random.nextInt( 5 );
+			final List< int[] > blocks = new ArrayList<>();
+			int nRows = random.nextInt( 3 );
+			int nCols = random.nextInt( 3 );
+			for ( int b = 0; b < nBlocks; b++ )
+			{
+				final int[] block = new int[] { nRows, nCols, 1 + random.nextInt( 6 ), 1 + random.nextInt( 6 ) };
+				blocks.add( block );
+				nRows += block[ 2 ];
+				nCols += block[ 3 ];
+			}
+			final int[] rowOrder = shuffled( random, nRows );
+			final int[] colOrder = shuffled( random, nCols );
+
+			final Triplets triplets = new Triplets( nRows * nCols );
+			for ( final int[] block : blocks )
+				for ( int i = block[ 0 ]; i < block[ 0 ] + block[ 2 ]; i++ )
+					for ( int j = block[ 1 ]; j < block[ 1 ] + block[ 3 ]; j++ )
+						if ( random.nextDouble() < 0.6 )
+							triplets.add( rowOrder[ i ], colOrder[ j ], random.nextInt( 10 ) );
+
+			final double[] rowAlternativeCosts = new double[ nRows ];
+			for ( int i = 0; i < nRows; i++ )
+				rowAlternativeCosts[ i ] = 1. + random.nextInt( 10 );
+			final double[] colAlternativeCosts = new double[ nCols ];
+			for ( int j = 0; j < nCols; j++ )
+				colAlternativeCosts[ j ] = 1. + random.nextInt( 10 );
+			return new Problem( triplets.toLinks( nRows, nCols ), rowAlternativeCosts, colAlternativeCosts );
+		}
+
+		private static double linkCost( final Random random, final Kind kind )
+		{
+			switch ( kind )
+			{
+			case ALL_EQUAL:
+				return 1.;
+			case ALTERNATIVES_BELOW:
+				return 5. + 5. * random.nextDouble();
+			default:
+				return random.nextInt( 10 );
+			}
+		}
+
+		private static double alternativeCost( final Random random, final Kind kind )
+		{
+			switch ( kind )
+			{
+			case ALL_EQUAL:
+				return 1.;
+			case ALTERNATIVES_BELOW:
+				return random.nextDouble();
+			case ALTERNATIVES_ABOVE:
+				return 100. + random.nextInt( 10 );
+			default:
+				return 1. + random.nextInt( 10 );
+			}
+		}
+
+		private static int[] shuffled( final Random random, final int n )
+		{
+			final int[] order = new int[ n ];
+			for ( int i = 0; i < n; i++ )
+				order[ i ] = i;
+			for ( int i = n - 1; i > 0; i-- )
+			{
+				final int k = random.nextInt( i + 1 );
+				final int tmp = order[ i ];
+				order[ i ] = order[ k ];
+				order[ k ] = tmp;
+			}
+			return order;
+		}
+	}
+
+	private static final class Triplets
+	{
+
+		private final int[] rows;
+
+		private final int[] cols;
+
+		private final double[] costs;
+
+		private int n;
+
+		private Triplets( final int capacity )
+		{
+			rows = new int[ capacity ];
+			cols = new int[ capacity ];
+			costs = new double[ capacity ];
+		}
+
+		private void add( final int row, final int col, final double cost )
+		{
+			rows[ n ] = row;
+			cols[ n ] = col;
+			costs[ n ] = cost;
+			n++;
+		}
+
+		private SparseLinkCosts toLinks( final int nRows, final int nCols )
+		{
+			return SparseLinkCosts.fromTriplets( nRows, nCols, rows, cols, costs, n );
+		}
+	}
+
+	/**
+	 * Hands a problem to the linker, the sources and targets being the row and
+	 * column indices. The linker reads the costs back from the matrix.
+	 */
+	private static class TestCostMatrix implements CostMatrixCreator< Integer, Integer >
+	{
+
+		private final Problem problem;
+
+		private final List< Integer > sources = new ArrayList<>();
+
+		private final List< Integer > targets = new ArrayList<>();
+
+		private TestCostMatrix( final Problem problem )
+		{
+			this.problem = problem;
+			for ( int i = 0; i < problem.links.getNRows(); i++ )
+				sources.add( i );
+			for ( int j = 0; j < problem.links.getNCols(); j++ )
+				targets.add( j );
+		}
+
+		@Override
+		public boolean checkInput()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean process()
+		{
+			return true;
+		}
+
+		@Override
+		public String getErrorMessage()
+		{
+			return null;
+		}
+
+		@Override
+		public SparseCostMatrix getResult()
+		{
+			final SparseLinkCosts links = problem.links;
+			final int[] number = new int[ links.getNRows() ];
+			for ( int i = 0; i < number.length; i++ )
+				number[ i ] = links.start[ i + 1 ] - links.start[ i ];
+			return new SparseCostMatrix( links.cc, links.kk, number, links.getNCols() );
+		}
+
+		@Override
+		public List< Integer > getSourceList()
+		{
+			return sources;
+		}
+
+		@Override
+		public List< Integer > getTargetList()
+		{
+			return targets;
+		}
+
+		@Override
+		public double getAlternativeCostForSource( final Integer source )
+		{
+			return problem.rowAlternativeCosts[ source ];
+		}
+
+		@Override
+		public double getAlternativeCostForTarget( final Integer target )
+		{
+			return problem.colAlternativeCosts[ target ];
+		}
+
+		@Override
+		public long getProcessingTime()
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * Same as {@link TestCostMatrix}, with the costs also given in compressed
+	 * row form.
+	 */
+	private static final class ProviderCostMatrix extends TestCostMatrix implements SparseLinkCosts.Provider
+	{
+
+		private final SparseLinkCosts links;
+
+		private ProviderCostMatrix( final Problem problem )
+		{
+			super( problem );
+			this.links = problem.links;
+		}
+
+		@Override
+		public SparseLinkCosts getLinkCosts()
+		{
+			return links;
+		}
+	}
+}
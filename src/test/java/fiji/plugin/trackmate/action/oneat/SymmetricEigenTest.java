@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2022 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.oneat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link SymmetricEigen} returns ascending eigenvalues with unit
+ * eigenvectors such that <code>A v = &lambda; v</code>, on the closed-form 2x2
+ * path and on the Jacobi path for 3x3 matrices.
+ */
+public class SymmetricEigenTest
+{
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static final int CASES = 1000;
+
+	@Test
+	public void test2x2()
+	{
+		check( new double[][] { { 2, 1 }, { 1, 3 } } );
+		check( new double[][] { { 4, -2 }, { -2, 1 } } );
+		check( new double[][] { { 1, 1e-12 }, { 1e-12, 1 } } );
+		final Random random = new Random( 1 );
+		for ( int c = 0; c < CASES; c++ )
+			check( random( random, 2 ) );
+	}
+
+	@Test
+	public void test2x2Diagonal()
+	{
+		check( new double[][] { { 3, 0 }, { 0, 1 } } );
+		check( new double[][] { { 1, 0 }, { 0, 3 } } );
+		check( new double[][] { { -2, 0 }, { 0, 5 } } );
+		check( new double[][] { { 0, 0 }, { 0, 0 } } );
+	}
+
+	@Test
+	public void test2x2Repeated()
+	{
+		check( new double[][] { { 2, 0 }, { 0, 2 } } );
+		check( new double[][] { { -1, 0 }, { 0, -1 } } );
+	}
+
+	@Test
+	public void test3x3()
+	{
+		check( new double[][] { { 2, 0, 0 }, { 0, 3, 0 }, { 0, 0, 1 } } );
+		check( new double[][] { { 2, 0, 0 }, { 0, 2, 0 }, { 0, 0, 2 } } );
+		check( new double[][] { { 2, 1, 0 }, { 1, 2, 0 }, { 0, 0, 3 } } );
+		check( new double[][] { { 4, 1, 2 }, { 1, 3, 0 }, { 2, 0, 5 } } );
+		check( new double[][] { { 1, 1, 1 }, { 1, 1, 1 }, { 1, 1, 1 } } );
+		final Random random = new Random( 1 );
+		for ( int c = 0; c < CASES; c++ )
+			check( random( random, 3 ) );
+	}
+
+	@Test
+	public void testValuesOnly()
+	{
+		final Random random = new Random( 1 );
+		for ( int n = 2; n <= 3; n++ )
+		{
+			for ( int c = 0; c < CASES; c++ )
+			{
+				final double[][] m = random( random, n );
+				final double[] expected = new double[ n ];
+				SymmetricEigen.decompose( m, expected, new double[ n ][ n ] );
+				final double[] values = new double[ n ];
+				SymmetricEigen.decompose( m, values, null );
+				for ( int k = 0; k < n; k++ )
+					assertEquals( "eigenvalue " + k, expected[ k ], values[ k ], TOLERANCE * scale( m ) );
+			}
+		}
+	}
+
+	/**
+	 * A random symmetric matrix, sometimes with a repeated eigenvalue.
+	 */
+	private static double[][] random( final Random random, final int n )
+	{
+		final double[][] m = new double[ n ][ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int j = i; j < n; j++ )
+			{
+				m[ i ][ j ] = 20 * random.nextDouble() - 10;
+				m[ j ][ i ] = m[ i ][ j ];
+			}
+		}
+		if ( random.nextInt( 4 ) == 0 )
+		{
+			// Rank one update of a multiple of the identity
+			final double s = 20 * random.nextDouble() - 10;
+			final double[] u = new double[ n ];
+			for ( int i = 0; i < n; i++ )
+				u[ i ] = random.nextGaussian();
+			for ( int i = 0; i < n; i++ )
+				for ( int j = 0; j < n; j++ )
+					m[ i ][ j ] = ( i == j ? s : 0 ) + u[ i ] * u[ j ];
+		}
+		return m;
+	}
+
+	private static double scale( final double[][] m )
+	{
+		double scale = 1;
+		for ( final double[] row : m )
+			for ( final double x : row )
+				scale = Math.max( scale, Math.abs( x ) );
+		return scale;
+	}
+
+	private static void check( final double[][] m )
+	{
+		final int n = m.length;
+		final double[] values = new double[ n ];
+		final double[][] vectors = new double[ n ][ n ];
+		SymmetricEigen.decompose( m, values, vectors );
+
+		final String name = Arrays.deepToString( m );
+		final double tolerance = TOLERANCE * scale( m );
+		for ( int k = 1; k < n; k++ )
+			assertTrue( name + ": eigenvalues not ascending", values[ k - 1 ] <= values[ k ] );
+
+		for ( int k = 0; k < n; k++ )
+		{
+			final double[] v = vectors[ k ];
+			double norm = 0;
+			for ( int i = 0; i < n; i++ )
+				norm += v[ i ] * v[ i ];
+			assertEquals( name + ": norm of eigenvector " + k, 1, norm, TOLERANCE );
+
+			for ( int i = 0; i < n; i++ )
+			{
+				double av = 0;
+				for ( int j = 0; j < n; j++ )
+					av += m[ i ][ j ] * v[ j ];
+				assertEquals( name + ": (A v)[ " + i + " ] for eigenvalue " + k, values[ k ] * v[ i ], av, tolerance );
+			}
+		}
+	}
+}